@@ -0,0 +1,124 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.iesjandula.base.base_server.security.models.DtoUsuario;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Coste de verificar un JWT según el algoritmo de la clave: RSA de 2048 bits (RS256), EC P-256 (ES256) y Ed25519 (EdDSA).
+ * Se mide la verificación de la firma aislada y AuthorizationService.obtenerUsuario sin caché de tokens verificados, que
+ * es lo que paga cada petición con un token nuevo. También se mide la firma, que hace FirebaseServer al emitir los tokens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AlgoritmoFirmaBenchmark
+{
+	/** Algoritmo de las claves */
+	@Param({ EntornoBenchmark.ALGORITMO_RSA, EntornoBenchmark.ALGORITMO_EC, EntornoBenchmark.ALGORITMO_ED25519 })
+	private String algoritmo ;
+
+	/** Atributo - entorno */
+	private EntornoBenchmark entorno ;
+
+	/** Atributo - par de claves del algoritmo */
+	private KeyPair parClaves ;
+
+	/** Atributo - parser que solo verifica con la clave pública del algoritmo */
+	private JwtParser jwtParser ;
+
+	/** Atributo - servicio a medir */
+	private AuthorizationService authorizationService ;
+
+	/** Atributo - instante de expiración de los tokens */
+	private long expiracion ;
+
+	/** Atributo - token válido */
+	private String token ;
+
+	/** Atributo - cabecera "Authorization" con el token válido */
+	private String authorizationHeader ;
+
+	/**
+	 * @throws IOException con un error al preparar el entorno
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		Map<String, Object> propiedades = new HashMap<String, Object>() ;
+		propiedades.put("reaktor.jwtCache.maxEntradas", "0") ;
+
+		this.parClaves 			  = EntornoBenchmark.generarParClaves(this.algoritmo) ;
+		this.entorno 			  = new EntornoBenchmark(this.parClaves, propiedades) ;
+		this.authorizationService = this.entorno.getBean(AuthorizationService.class) ;
+		this.jwtParser 			  = Jwts.parser().verifyWith(this.parClaves.getPublic()).build() ;
+
+		this.expiracion 		 = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1) ;
+		this.token 				 = this.entorno.firmarToken(this.expiracion) ;
+		this.authorizationHeader = "Bearer " + this.token ;
+	}
+
+	/**
+	 * @throws IOException con un error al borrar el entorno
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		this.entorno.close() ;
+	}
+
+	/**
+	 * @return los claims del token, tras verificar su firma
+	 */
+	@Benchmark
+	public Claims verificarFirma()
+	{
+		return this.jwtParser.parseSignedClaims(this.token).getPayload() ;
+	}
+
+	/**
+	 * @return el usuario del token, verificado sin caché
+	 */
+	@Benchmark
+	public DtoUsuario obtenerUsuario()
+	{
+		return this.authorizationService.obtenerUsuario(this.authorizationHeader) ;
+	}
+
+	/**
+	 * @return un token nuevo firmado con la clave privada
+	 */
+	@Benchmark
+	public String firmarToken()
+	{
+		return EntornoBenchmark.firmarToken(this.parClaves.getPrivate(), this.expiracion, List.of("PROFESOR")) ;
+	}
+}
@@ -0,0 +1,97 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.iesjandula.base.base_server.security.models.DtoUsuario;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Coste de AuthorizationService.obtenerUsuario y tokenExpirado con un token válido, con la caché de tokens
+ * verificados habilitada (lo normal: el mismo token se repite en cada petición) y deshabilitada (verificar la firma siempre)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AuthorizationServiceBenchmark
+{
+	/** true si la caché de tokens verificados está habilitada */
+	@Param({ "true", "false" })
+	private boolean cache ;
+
+	/** Atributo - entorno */
+	private EntornoBenchmark entorno ;
+
+	/** Atributo - servicio a medir */
+	private AuthorizationService authorizationService ;
+
+	/** Atributo - token válido */
+	private String token ;
+
+	/** Atributo - cabecera "Authorization" con el token válido */
+	private String authorizationHeader ;
+
+	/**
+	 * @throws IOException con un error al preparar el entorno
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		Map<String, Object> propiedades = new HashMap<String, Object>() ;
+		propiedades.put("reaktor.jwtCache.maxEntradas", this.cache ? "10000" : "0") ;
+
+		this.entorno 			  = EntornoBenchmark.crear(propiedades) ;
+		this.authorizationService = this.entorno.getBean(AuthorizationService.class) ;
+
+		this.token 				 = this.entorno.firmarToken(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)) ;
+		this.authorizationHeader = "Bearer " + this.token ;
+	}
+
+	/**
+	 * @throws IOException con un error al borrar el entorno
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		this.entorno.close() ;
+	}
+
+	/**
+	 * @return el usuario del token
+	 */
+	@Benchmark
+	public DtoUsuario obtenerUsuario()
+	{
+		return this.authorizationService.obtenerUsuario(this.authorizationHeader) ;
+	}
+
+	/**
+	 * @return false, ya que el token no ha expirado
+	 */
+	@Benchmark
+	public boolean tokenExpirado()
+	{
+		return this.authorizationService.tokenExpirado(this.token) ;
+	}
+}
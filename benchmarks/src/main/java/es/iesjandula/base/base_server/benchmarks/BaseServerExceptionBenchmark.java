@@ -0,0 +1,57 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Coste de construir el cuerpo de la respuesta de error, con y sin excepción de causa (cuya traza se serializa)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BaseServerExceptionBenchmark
+{
+	/** Atributo - excepción sin causa */
+	private final BaseServerException sinCausa = new BaseServerException(BaseServerConstants.ERR_GENERIC_EXCEPTION_CODE, "Error de prueba") ;
+
+	/** Atributo - excepción con causa */
+	private final BaseServerException conCausa = new BaseServerException(BaseServerConstants.ERR_GENERIC_EXCEPTION_CODE, "Error de prueba",
+																		  new IOException("Causa de prueba")) ;
+
+	/**
+	 * @return el cuerpo de la respuesta de error
+	 */
+	@Benchmark
+	public Map<String, String> sinCausa()
+	{
+		return this.sinCausa.getBodyExceptionMessage() ;
+	}
+
+	/**
+	 * @return el cuerpo de la respuesta de error, con la traza de la causa
+	 */
+	@Benchmark
+	public Map<String, String> conCausa()
+	{
+		return this.conCausa.getBodyExceptionMessage() ;
+	}
+}
@@ -0,0 +1,233 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import es.iesjandula.base.base_server.http_client.HttpClientConfig;
+import es.iesjandula.base.base_server.http_client.HttpClientPoolService;
+import es.iesjandula.base.base_server.metrics.MetricasService;
+import es.iesjandula.base.base_server.security.JwtRequestFilter;
+import es.iesjandula.base.base_server.security.RutasPublicasMatcher;
+import es.iesjandula.base.base_server.security.service.AlmacenTokenCompartido;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import es.iesjandula.base.base_server.security.service.CacheUsuariosVerificados;
+import es.iesjandula.base.base_server.security.service.RegistroClavesPublicas;
+import es.iesjandula.base.base_server.security.service.SessionStorageService;
+import es.iesjandula.base.base_server.security.service.UidService;
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import io.jsonwebtoken.Jwts;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Entorno común de los benchmarks: claves de prueba, tokens firmados y un contexto de Spring con los beans de
+ * seguridad de BaseServer, sin servidor web ni FirebaseServer. Todo se crea en un directorio temporal
+ */
+public final class EntornoBenchmark implements AutoCloseable
+{
+	/** Algoritmo de las claves por defecto */
+	public static final String ALGORITMO_RSA 	 = "RSA" ;
+
+	/** Algoritmo de las claves de curva elíptica (P-256, firmas ES256) */
+	public static final String ALGORITMO_EC 	 = "EC" ;
+
+	/** Algoritmo de las claves Edwards (firmas EdDSA) */
+	public static final String ALGORITMO_ED25519 = "Ed25519" ;
+
+	/** UID del cliente de prueba */
+	public static final String UID_PRUEBA 	 = "uid-benchmark" ;
+
+	/** Atributo - directorio temporal del entorno */
+	private final Path directorio ;
+
+	/** Atributo - par de claves con el que se firman los tokens válidos */
+	private final KeyPair parClaves ;
+
+	/** Atributo - contexto de Spring con los beans de seguridad. Es web (sin servidor) para que se carguen los beans Servlet */
+	private final AnnotationConfigServletWebApplicationContext contexto ;
+
+	/**
+	 * @param parClaves par de claves con el que se firman los tokens válidos
+	 * @param propiedades propiedades "reaktor.*" adicionales (sobrescriben las del entorno)
+	 * @throws IOException con un error al preparar el directorio temporal
+	 */
+	public EntornoBenchmark(KeyPair parClaves, Map<String, Object> propiedades) throws IOException
+	{
+		this.directorio = Files.createTempDirectory("baseserver-benchmark") ;
+		this.parClaves  = parClaves ;
+
+		Path ficheroClave = this.directorio.resolve("public_key.pem") ;
+		Path ficheroUid   = this.directorio.resolve("uid.txt") ;
+
+		Files.writeString(ficheroClave, EntornoBenchmark.convertirPem(parClaves.getPublic()), StandardCharsets.US_ASCII) ;
+		Files.writeString(ficheroUid, UID_PRUEBA, StandardCharsets.US_ASCII) ;
+
+		Map<String, Object> propiedadesEntorno = new HashMap<String, Object>() ;
+
+		propiedadesEntorno.put("reaktor.publicKeyFile", ficheroClave.toString()) ;
+		propiedadesEntorno.put("reaktor.publicKeyVigilar", "false") ;
+		propiedadesEntorno.put("reaktor.uidFile", ficheroUid.toString()) ;
+		propiedadesEntorno.put("reaktor.firebase_server_url", "http://localhost:1") ;
+		propiedadesEntorno.putAll(propiedades) ;
+
+		this.contexto = new AnnotationConfigServletWebApplicationContext() ;
+		this.contexto.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", propiedadesEntorno)) ;
+		this.contexto.register(HttpClientConfig.class, HttpClientPoolService.class, CacheUsuariosVerificados.class,
+							   RegistroClavesPublicas.class, SessionStorageService.class, UidService.class,
+							   AlmacenTokenCompartido.class, MetricasService.class, AuthorizationService.class,
+							   RutasPublicasMatcher.class, JwtRequestFilter.class) ;
+		this.contexto.refresh() ;
+	}
+
+	/**
+	 * @param propiedades propiedades "reaktor.*" adicionales
+	 * @return un entorno con claves RSA de 2048 bits
+	 * @throws IOException con un error al preparar el directorio temporal
+	 */
+	public static EntornoBenchmark crear(Map<String, Object> propiedades) throws IOException
+	{
+		return new EntornoBenchmark(EntornoBenchmark.generarParClaves(ALGORITMO_RSA), propiedades) ;
+	}
+
+	/**
+	 * @param algoritmo algoritmo de las claves ("RSA", "EC", "Ed25519")
+	 * @return un par de claves nuevo
+	 */
+	public static KeyPair generarParClaves(String algoritmo)
+	{
+		try
+		{
+			KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algoritmo) ;
+
+			if (ALGORITMO_RSA.equals(algoritmo))
+			{
+				keyPairGenerator.initialize(2048) ;
+			}
+			else if (ALGORITMO_EC.equals(algoritmo))
+			{
+				// La curva por defecto del JDK no es la de ES256
+				keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1")) ;
+			}
+
+			return keyPairGenerator.generateKeyPair() ;
+		}
+		catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException exception)
+		{
+			throw new IllegalStateException(exception) ;
+		}
+	}
+
+	/**
+	 * @param publicKey clave pública
+	 * @return la clave en formato PEM, como la que lee RegistroClavesPublicas
+	 */
+	public static String convertirPem(PublicKey publicKey)
+	{
+		return "-----BEGIN PUBLIC KEY-----\n" +
+			   Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(publicKey.getEncoded()) +
+			   "\n-----END PUBLIC KEY-----\n" ;
+	}
+
+	/**
+	 * @param privateKey clave con la que se firma
+	 * @param expiracion instante (en milisegundos) de expiración del token
+	 * @param roles roles del usuario
+	 * @return un token JWT con los claims que espera AuthorizationService
+	 */
+	public static String firmarToken(PrivateKey privateKey, long expiracion, List<String> roles)
+	{
+		return Jwts.builder()
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_EMAIL, "benchmark@iesjandula.es")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_NOMBRE, "Bench")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_APELLIDOS, "Mark")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_ROLES, roles)
+				   .expiration(new Date(expiracion))
+				   .signWith(privateKey)
+				   .compact() ;
+	}
+
+	/**
+	 * @param expiracion instante (en milisegundos) de expiración del token
+	 * @return un token firmado con la clave del entorno
+	 */
+	public String firmarToken(long expiracion)
+	{
+		return EntornoBenchmark.firmarToken(this.parClaves.getPrivate(), expiracion, List.of("PROFESOR")) ;
+	}
+
+	/**
+	 * @param clase clase del bean
+	 * @param <T> tipo del bean
+	 * @return el bean del contexto
+	 */
+	public <T> T getBean(Class<T> clase)
+	{
+		return this.contexto.getBean(clase) ;
+	}
+
+	/**
+	 * @return el directorio temporal del entorno
+	 */
+	public Path getDirectorio()
+	{
+		return this.directorio ;
+	}
+
+	/**
+	 * Cierra el contexto y borra el directorio temporal
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.contexto.close() ;
+
+		EntornoBenchmark.borrar(this.directorio) ;
+	}
+
+	/**
+	 * @param ruta fichero o directorio a borrar recursivamente
+	 * @throws IOException con un error al borrar
+	 */
+	public static void borrar(Path ruta) throws IOException
+	{
+		if (Files.exists(ruta))
+		{
+			Files.walkFileTree(ruta, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult visitFile(Path fichero, BasicFileAttributes basicFileAttributes) throws IOException
+				{
+					Files.delete(fichero) ;
+					return FileVisitResult.CONTINUE ;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path directorio, IOException ioException) throws IOException
+				{
+					Files.delete(directorio) ;
+					return FileVisitResult.CONTINUE ;
+				}
+			}) ;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import es.iesjandula.base.base_server.security.JwtRequestFilter;
+import es.iesjandula.base.base_server.security.service.CacheUsuariosVerificados;
+import jakarta.servlet.ServletException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Coste de una petición a una ruta protegida a través de JwtRequestFilter (hasta el final de la cadena de filtros,
+ * que aquí no hace nada) con un token válido, uno expirado y uno firmado con otra clave.
+ *
+ * En "valido", "expirado" y "falsificado" se vacía la caché de tokens verificados antes de cada invocación, así que
+ * siempre se verifica la firma. Los casos "_cache" repiten el mismo token sin vaciarla y miden la respuesta desde la
+ * caché (la de usuarios verificados para el válido y la de rechazados para el falsificado)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JwtRequestFilterBenchmark
+{
+	/** Tipo de token de la petición */
+	@Param({ "valido", "expirado", "falsificado", "valido_cache", "falsificado_cache" })
+	private String tipoToken ;
+
+	/** Sufijo de los tipos de token que se responden desde la caché */
+	private static final String SUFIJO_CACHE = "_cache" ;
+
+	/** Atributo - entorno */
+	private EntornoBenchmark entorno ;
+
+	/** Atributo - filtro a medir */
+	private JwtRequestFilter jwtRequestFilter ;
+
+	/** Atributo - caché de tokens verificados */
+	private CacheUsuariosVerificados cacheUsuariosVerificados ;
+
+	/** Atributo - true si la caché se conserva entre invocaciones */
+	private boolean conCache ;
+
+	/** Atributo - cabecera "Authorization" de la petición */
+	private String authorizationHeader ;
+
+	/**
+	 * @throws IOException con un error al preparar el entorno
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		this.entorno 		  = EntornoBenchmark.crear(new HashMap<String, Object>()) ;
+		this.jwtRequestFilter = this.entorno.getBean(JwtRequestFilter.class) ;
+
+		this.cacheUsuariosVerificados = this.entorno.getBean(CacheUsuariosVerificados.class) ;
+		this.conCache 				  = this.tipoToken.endsWith(SUFIJO_CACHE) ;
+
+		String tipo 		 = this.conCache ? this.tipoToken.substring(0, this.tipoToken.length() - SUFIJO_CACHE.length()) : this.tipoToken ;
+		long dentroDeUnaHora = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1) ;
+		String token 		 = null ;
+
+		if ("valido".equals(tipo))
+		{
+			token = this.entorno.firmarToken(dentroDeUnaHora) ;
+		}
+		else if ("expirado".equals(tipo))
+		{
+			token = this.entorno.firmarToken(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)) ;
+		}
+		else
+		{
+			token = EntornoBenchmark.firmarToken(EntornoBenchmark.generarParClaves(EntornoBenchmark.ALGORITMO_RSA).getPrivate(),
+												 dentroDeUnaHora, List.of("ADMINISTRADOR")) ;
+		}
+
+		this.authorizationHeader = "Bearer " + token ;
+	}
+
+	/**
+	 * Vacía la caché para que la siguiente invocación verifique el token. Level.Invocation es aceptable aquí porque
+	 * cada invocación cuesta decenas de microsegundos (la verificación de la firma)
+	 */
+	@Setup(Level.Invocation)
+	public void vaciarCache()
+	{
+		if (!this.conCache)
+		{
+			this.cacheUsuariosVerificados.limpiar() ;
+		}
+	}
+
+	/**
+	 * @throws IOException con un error al borrar el entorno
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		this.entorno.close() ;
+	}
+
+	/**
+	 * @return el estado HTTP de la respuesta
+	 * @throws ServletException con un error en la cadena de filtros
+	 * @throws IOException con un error en la cadena de filtros
+	 */
+	@Benchmark
+	public int filtrar() throws ServletException, IOException
+	{
+		MockHttpServletRequest request   = new MockHttpServletRequest("GET", "/profesor/recurso") ;
+		MockHttpServletResponse response = new MockHttpServletResponse() ;
+
+		request.addHeader("Authorization", this.authorizationHeader) ;
+
+		try
+		{
+			this.jwtRequestFilter.doFilter(request, response, new MockFilterChain()) ;
+		}
+		finally
+		{
+			SecurityContextHolder.clearContext() ;
+		}
+
+		return response.getStatus() ;
+	}
+}
@@ -0,0 +1,200 @@
+package es.iesjandula.base.base_server.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.iesjandula.base.base_server.resources_handler.ResourcesHandler;
+import es.iesjandula.base.base_server.resources_handler.ResourcesHandlerFile;
+import es.iesjandula.base.base_server.resources_handler.ResourcesHandlerJar;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Coste de ResourcesHandlerFile.copyToDirectory y ResourcesHandlerJar.copyToDirectory con un árbol de recursos
+ * pequeño y otro grande. Las copias completas se hacen sobre un directorio de destino vacío, y las sincronizaciones
+ * sobre uno que ya tiene los recursos y su manifiesto, que es lo que ocurre al reiniciar el microservicio sin cambios
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourcesHandlerBenchmark
+{
+	/** Carpeta de los recursos dentro del jar */
+	private static final String CARPETA_RECURSOS = "recursos/" ;
+
+	/** Entradas de librerías que se añaden al jar antes de los recursos, como en un fat-jar de Spring Boot */
+	private static final int ENTRADAS_LIBRERIAS = 20000 ;
+
+	/** Tamaño del árbol de recursos: "pequeno" (20 ficheros de 1 KB) o "grande" (1000 ficheros de 16 KB) */
+	@Param({ "pequeno", "grande" })
+	private String arbol ;
+
+	/** Atributo - directorio temporal */
+	private Path directorio ;
+
+	/** Atributo - directorio de destino de cada copia */
+	private File destino ;
+
+	/** Atributo - directorio de destino ya copiado, para las sincronizaciones sin cambios */
+	private File destinoSincronizado ;
+
+	/** Atributo - manejador de la carpeta de recursos en disco */
+	private ResourcesHandler resourcesHandlerFile ;
+
+	/** Atributo - manejador de la carpeta de recursos dentro del jar */
+	private ResourcesHandler resourcesHandlerJar ;
+
+	/**
+	 * Crea el árbol de recursos en disco y el mismo dentro de un jar
+	 * @throws IOException con un error al crear los ficheros
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		boolean grande 		= "grande".equals(this.arbol) ;
+		int carpetas 		= grande ? 20 : 2 ;
+		int ficherosCarpeta = grande ? 50 : 10 ;
+		byte[] contenido 	= new byte[grande ? 16 * 1024 : 1024] ;
+
+		new Random(42).nextBytes(contenido) ;
+
+		this.directorio = Files.createTempDirectory("baseserver-benchmark-recursos") ;
+		this.destino 	= this.directorio.resolve("destino").toFile() ;
+
+		Path origen = this.directorio.resolve("origen") ;
+		Path jar 	= this.directorio.resolve("recursos.jar") ;
+
+		try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(jar)))
+		{
+			for (int i = 0 ; i < ENTRADAS_LIBRERIAS ; i++)
+			{
+				jarOutputStream.putNextEntry(new JarEntry("BOOT-INF/lib/libreria" + (i / 500) + "/Clase" + i + ".class")) ;
+				jarOutputStream.closeEntry() ;
+			}
+
+			jarOutputStream.putNextEntry(new JarEntry(CARPETA_RECURSOS)) ;
+			jarOutputStream.closeEntry() ;
+
+			for (int i = 0 ; i < carpetas ; i++)
+			{
+				String carpeta = "carpeta" + i + "/" ;
+
+				Files.createDirectories(origen.resolve(carpeta)) ;
+
+				jarOutputStream.putNextEntry(new JarEntry(CARPETA_RECURSOS + carpeta)) ;
+				jarOutputStream.closeEntry() ;
+
+				for (int j = 0 ; j < ficherosCarpeta ; j++)
+				{
+					String fichero = carpeta + "fichero" + j + ".dat" ;
+
+					try (OutputStream outputStream = Files.newOutputStream(origen.resolve(fichero)))
+					{
+						outputStream.write(contenido) ;
+					}
+
+					jarOutputStream.putNextEntry(new JarEntry(CARPETA_RECURSOS + fichero)) ;
+					jarOutputStream.write(contenido) ;
+					jarOutputStream.closeEntry() ;
+				}
+			}
+		}
+
+		this.resourcesHandlerFile = new ResourcesHandlerFile(origen.toUri().toURL()) ;
+		this.resourcesHandlerJar  = new ResourcesHandlerJar(URI.create("jar:" + jar.toUri() + "!/" + CARPETA_RECURSOS).toURL()) ;
+
+		// Cada manejador deja su propio manifiesto en el destino
+		this.destinoSincronizado = this.directorio.resolve("destinoSincronizado").toFile() ;
+
+		try
+		{
+			this.resourcesHandlerFile.copyToDirectory(this.destinoSincronizado) ;
+			this.resourcesHandlerJar.copyToDirectory(this.destinoSincronizado) ;
+		}
+		catch (BaseServerException baseServerException)
+		{
+			throw new IOException(baseServerException) ;
+		}
+	}
+
+	/**
+	 * Vacía el destino antes de cada copia
+	 * @throws IOException con un error al borrar
+	 */
+	@Setup(Level.Invocation)
+	public void vaciarDestino() throws IOException
+	{
+		EntornoBenchmark.borrar(this.destino.toPath()) ;
+	}
+
+	/**
+	 * @throws IOException con un error al borrar
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		EntornoBenchmark.borrar(this.directorio) ;
+	}
+
+	/**
+	 * @throws BaseServerException con un error al copiar
+	 */
+	@Benchmark
+	public void copiarDesdeDirectorio() throws BaseServerException
+	{
+		this.resourcesHandlerFile.copyToDirectory(this.destino) ;
+	}
+
+	/**
+	 * @throws BaseServerException con un error al copiar
+	 */
+	@Benchmark
+	public void copiarDesdeJar() throws BaseServerException
+	{
+		this.resourcesHandlerJar.copyToDirectory(this.destino) ;
+	}
+
+	/**
+	 * @throws BaseServerException con un error al sincronizar
+	 */
+	@Benchmark
+	public void sincronizarDesdeDirectorio() throws BaseServerException
+	{
+		this.resourcesHandlerFile.copyToDirectory(this.destinoSincronizado) ;
+	}
+
+	/**
+	 * @throws BaseServerException con un error al sincronizar
+	 */
+	@Benchmark
+	public void sincronizarDesdeJar() throws BaseServerException
+	{
+		this.resourcesHandlerJar.copyToDirectory(this.destinoSincronizado) ;
+	}
+}
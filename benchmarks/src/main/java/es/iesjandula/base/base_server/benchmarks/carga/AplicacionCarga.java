@@ -0,0 +1,41 @@
+package es.iesjandula.base.base_server.benchmarks.carga;
+
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import es.iesjandula.base.base_server.jar_update.JarUpdateService;
+import es.iesjandula.base.base_server.security.RequiereRol;
+import es.iesjandula.base.base_server.security.models.Rol;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Microservicio mínimo de la prueba de carga: todos los beans de BaseServer (SecurityConfig incluido) y un endpoint
+ * protegido. Se excluye JarUpdateService para que reconstruir el jar de los benchmarks no pare la prueba
+ */
+@RestController
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@EnableScheduling
+@ComponentScan(basePackages = "es.iesjandula.base.base_server",
+			   excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = JarUpdateService.class))
+public class AplicacionCarga
+{
+	/** Ruta del endpoint protegido */
+	public static final String RUTA_PROTEGIDA = "/carga/protegido" ;
+
+	/**
+	 * @return respuesta fija, para que la prueba mida solo el coste de BaseServer
+	 */
+	@RequiereRol(Rol.PROFESOR)
+	@GetMapping(RUTA_PROTEGIDA)
+	public String protegido()
+	{
+		return "OK" ;
+	}
+}
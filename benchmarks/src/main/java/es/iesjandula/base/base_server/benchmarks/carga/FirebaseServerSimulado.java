@@ -0,0 +1,77 @@
+package es.iesjandula.base.base_server.benchmarks.carga;
+
+import java.security.KeyPair;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import io.jsonwebtoken.Jwts;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Sustituto de FirebaseServer en la prueba de carga: firma los tokens personalizados con el par de claves de prueba,
+ * simula la latencia de la red y cuenta las peticiones recibidas
+ */
+@RestController
+public class FirebaseServerSimulado
+{
+	/** Latencia (en milisegundos) simulada de cada petición */
+	@Value("${carga.latenciaFirebaseMillis:20}")
+	private long latenciaMillis ;
+
+	/** Validez (en segundos) de los tokens personalizados */
+	@Value("${carga.expiracionTokenSegundos:3600}")
+	private long expiracionTokenSegundos ;
+
+	@Autowired
+	private KeyPair parClavesCarga ;
+
+	/** Atributo - peticiones recibidas */
+	private final AtomicInteger peticiones = new AtomicInteger() ;
+
+	/**
+	 * @param uid UID del cliente
+	 * @return un token personalizado firmado
+	 * @throws InterruptedException si se interrumpe la espera
+	 */
+	@PostMapping("/firebase/jwt/getCustomToken")
+	public String obtenerTokenPersonalizado(@RequestHeader(BaseServerConstants.FIREBASE_UID) String uid) throws InterruptedException
+	{
+		this.peticiones.incrementAndGet() ;
+
+		if (this.latenciaMillis > 0)
+		{
+			Thread.sleep(this.latenciaMillis) ;
+		}
+
+		return Jwts.builder()
+				   .subject(uid)
+				   .expiration(new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.expiracionTokenSegundos)))
+				   .signWith(this.parClavesCarga.getPrivate())
+				   .compact() ;
+	}
+
+	/**
+	 * @return peticiones recibidas hasta ahora
+	 */
+	public int getPeticiones()
+	{
+		return this.peticiones.get() ;
+	}
+
+	/**
+	 * @return peticiones recibidas hasta ahora, que vuelven a empezar desde 0
+	 */
+	public int reiniciarPeticiones()
+	{
+		return this.peticiones.getAndSet(0) ;
+	}
+}
@@ -0,0 +1,307 @@
+package es.iesjandula.base.base_server.benchmarks.carga;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import es.iesjandula.base.base_server.benchmarks.EntornoBenchmark;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import es.iesjandula.base.base_server.security.service.SessionStorageService;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Prueba de carga de extremo a extremo, sin FirebaseServer real. Arranca AplicacionCarga (BaseServer completo con
+ * SecurityConfig) en un puerto libre, con FirebaseServerSimulado como servidor del token personalizado, y ejecuta:
+ *
+ * 1. Tráfico autenticado: "carga.hilos" hilos piden el endpoint protegido con "carga.tokens" usuarios distintos
+ * 2. Token personalizado: los mismos hilos llaman a la vez a obtenerTokenPersonalizado partiendo sin token, y se
+ *    cuentan las peticiones que llegan a FirebaseServer (una por cada renovación si no hay efecto manada)
+ *
+ * Los parámetros se pasan como propiedades: java -cp benchmarks.jar ...PruebaCarga --carga.hilos=64 --carga.segundos=30
+ */
+public final class PruebaCarga
+{
+	/** Atributo - contexto de la aplicación */
+	private final ConfigurableApplicationContext contexto ;
+
+	/** Atributo - par de claves de prueba */
+	private final KeyPair parClaves ;
+
+	/** Atributo - URL base de la aplicación */
+	private final String urlBase ;
+
+	/** Atributo - hilos concurrentes */
+	private final int hilos ;
+
+	/** Atributo - duración (en segundos) de cada fase */
+	private final int segundos ;
+
+	/** Atributo - duración (en segundos) del calentamiento, que no se mide */
+	private final int calentamientoSegundos ;
+
+	/** Atributo - usuarios (tokens) distintos del tráfico autenticado */
+	private final int tokens ;
+
+	/**
+	 * @param contexto contexto de la aplicación
+	 * @param parClaves par de claves de prueba
+	 * @param puerto puerto de la aplicación
+	 */
+	private PruebaCarga(ConfigurableApplicationContext contexto, KeyPair parClaves, int puerto)
+	{
+		Environment environment = contexto.getEnvironment() ;
+
+		this.contexto 			   = contexto ;
+		this.parClaves 			   = parClaves ;
+		this.urlBase 			   = "http://localhost:" + puerto ;
+		this.hilos 				   = environment.getProperty("carga.hilos", Integer.class, 32) ;
+		this.segundos 			   = environment.getProperty("carga.segundos", Integer.class, 10) ;
+		this.calentamientoSegundos = environment.getProperty("carga.calentamientoSegundos", Integer.class, 3) ;
+		this.tokens 			   = environment.getProperty("carga.tokens", Integer.class, 100) ;
+	}
+
+	/**
+	 * @param args propiedades de la prueba y de BaseServer (--clave=valor)
+	 * @throws Exception con un error en la prueba
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		KeyPair parClaves = EntornoBenchmark.generarParClaves(EntornoBenchmark.ALGORITMO_RSA) ;
+		Path directorio   = Files.createTempDirectory("baseserver-carga") ;
+		int puerto 		  = PruebaCarga.buscarPuertoLibre() ;
+
+		Path ficheroClave = directorio.resolve("public_key.pem") ;
+		Path ficheroUid   = directorio.resolve("uid.txt") ;
+
+		Files.writeString(ficheroClave, EntornoBenchmark.convertirPem(parClaves.getPublic()), StandardCharsets.US_ASCII) ;
+		Files.writeString(ficheroUid, EntornoBenchmark.UID_PRUEBA, StandardCharsets.US_ASCII) ;
+
+		Map<String, Object> propiedades = new HashMap<String, Object>() ;
+		propiedades.put("server.port", puerto) ;
+		propiedades.put("reaktor.publicKeyFile", ficheroClave.toString()) ;
+		propiedades.put("reaktor.uidFile", ficheroUid.toString()) ;
+		propiedades.put("reaktor.firebase_server_url", "http://localhost:" + puerto) ;
+		propiedades.put("logging.level.root", "WARN") ;
+
+		// Los argumentos tienen prioridad sobre las propiedades por defecto
+		ConfigurableApplicationContext contexto = new SpringApplicationBuilder(AplicacionCarga.class)
+				.properties(propiedades)
+				.initializers(applicationContext -> applicationContext.getBeanFactory().registerSingleton("parClavesCarga", parClaves))
+				.run(args) ;
+
+		int codigoSalida = 0 ;
+
+		try
+		{
+			PruebaCarga pruebaCarga = new PruebaCarga(contexto, parClaves, puerto) ;
+
+			pruebaCarga.probarTraficoAutenticado() ;
+			pruebaCarga.probarTokenPersonalizado() ;
+		}
+		catch (Exception exception)
+		{
+			exception.printStackTrace() ;
+			codigoSalida = 1 ;
+		}
+		finally
+		{
+			SpringApplication.exit(contexto) ;
+			EntornoBenchmark.borrar(directorio) ;
+		}
+
+		System.exit(codigoSalida) ;
+	}
+
+	/**
+	 * Fase 1: peticiones HTTP concurrentes al endpoint protegido
+	 * @throws InterruptedException si se interrumpe la prueba
+	 */
+	private void probarTraficoAutenticado() throws InterruptedException
+	{
+		long expiracion 	   = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1) ;
+		List<String> cabeceras = new ArrayList<String>() ;
+
+		for (int i = 0 ; i < this.tokens ; i++)
+		{
+			String token = EntornoBenchmark.firmarToken(this.parClaves.getPrivate(), expiracion + i, List.of("PROFESOR")) ;
+
+			cabeceras.add("Bearer " + token) ;
+		}
+
+		HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build() ;
+		URI uri 			  = URI.create(this.urlBase + AplicacionCarga.RUTA_PROTEGIDA) ;
+
+		List<RegistroLatencias> registros = this.ejecutar("Tráfico autenticado", (hilo, iteracion) ->
+		{
+			HttpRequest httpRequest = HttpRequest.newBuilder(uri)
+												 .header("Authorization", cabeceras.get((hilo + iteracion) % cabeceras.size()))
+												 .build() ;
+
+			return httpClient.send(httpRequest, HttpResponse.BodyHandlers.discarding()).statusCode() == 200 ;
+		}) ;
+
+		System.out.println(RegistroLatencias.resumir(registros, "Tráfico autenticado (" + this.hilos + " hilos, " + this.tokens + " usuarios)", this.segundos)) ;
+	}
+
+	/**
+	 * Fase 2: llamadas concurrentes a obtenerTokenPersonalizado partiendo sin token en "sesión"
+	 * @throws InterruptedException si se interrumpe la prueba
+	 */
+	private void probarTokenPersonalizado() throws InterruptedException
+	{
+		AuthorizationService authorizationService 	= this.contexto.getBean(AuthorizationService.class) ;
+		FirebaseServerSimulado firebaseServerSimulado = this.contexto.getBean(FirebaseServerSimulado.class) ;
+		int timeout 								= this.contexto.getEnvironment().getProperty("carga.timeoutMillis", Integer.class, 10000) ;
+
+		// Todos los hilos empiezan sin token, que es cuando puede producirse el efecto manada
+		this.contexto.getBean(SessionStorageService.class).setTokenPersonalizado(null) ;
+		firebaseServerSimulado.reiniciarPeticiones() ;
+
+		List<RegistroLatencias> registros = this.ejecutar("Token personalizado", (hilo, iteracion) ->
+		{
+			try
+			{
+				return authorizationService.obtenerTokenPersonalizado(timeout) != null ;
+			}
+			catch (BaseServerException baseServerException)
+			{
+				return false ;
+			}
+		}) ;
+
+		System.out.println(RegistroLatencias.resumir(registros, "obtenerTokenPersonalizado (" + this.hilos + " hilos)", this.segundos)) ;
+		System.out.println("Peticiones a FirebaseServer: " + firebaseServerSimulado.getPeticiones()) ;
+	}
+
+	/**
+	 * Ejecuta la operación en todos los hilos a la vez durante el calentamiento y la medida
+	 *
+	 * @param nombre nombre de la fase, para los hilos
+	 * @param operacion operación a ejecutar
+	 * @return los registros de latencias de cada hilo, solo de la medida
+	 * @throws InterruptedException si se interrumpe la prueba
+	 */
+	private List<RegistroLatencias> ejecutar(String nombre, Operacion operacion) throws InterruptedException
+	{
+		List<RegistroLatencias> registros = new ArrayList<RegistroLatencias>() ;
+		List<Thread> threads 			  = new ArrayList<Thread>() ;
+		CountDownLatch salida 			  = new CountDownLatch(1) ;
+
+		long inicioMedida = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.calentamientoSegundos) ;
+		long finMedida 	  = inicioMedida + TimeUnit.SECONDS.toNanos(this.segundos) ;
+
+		for (int i = 0 ; i < this.hilos ; i++)
+		{
+			int hilo 				   = i ;
+			RegistroLatencias registro = new RegistroLatencias() ;
+
+			registros.add(registro) ;
+			threads.add(new Thread(() ->
+			{
+				try
+				{
+					salida.await() ;
+
+					int iteracion = 0 ;
+					long ahora 	  = System.nanoTime() ;
+
+					while (ahora < finMedida)
+					{
+						boolean correcta = false ;
+
+						try
+						{
+							correcta = operacion.ejecutar(hilo, iteracion++) ;
+						}
+						catch (IOException ioException)
+						{
+							// Se cuenta como error y se sigue
+						}
+
+						long fin = System.nanoTime() ;
+
+						if (ahora >= inicioMedida)
+						{
+							if (correcta)
+							{
+								registro.registrar(fin - ahora) ;
+							}
+							else
+							{
+								registro.registrarError() ;
+							}
+						}
+
+						ahora = fin ;
+					}
+				}
+				catch (InterruptedException interruptedException)
+				{
+					Thread.currentThread().interrupt() ;
+				}
+			}, nombre + "-" + i)) ;
+		}
+
+		for (Thread thread : threads)
+		{
+			thread.start() ;
+		}
+
+		salida.countDown() ;
+
+		for (Thread thread : threads)
+		{
+			thread.join() ;
+		}
+
+		return registros ;
+	}
+
+	/**
+	 * @return un puerto TCP libre
+	 * @throws IOException con un error al abrir el socket
+	 */
+	private static int buscarPuertoLibre() throws IOException
+	{
+		try (ServerSocket serverSocket = new ServerSocket(0))
+		{
+			return serverSocket.getLocalPort() ;
+		}
+	}
+
+	/**
+	 * Operación que ejecuta cada hilo en bucle
+	 */
+	@FunctionalInterface
+	private interface Operacion
+	{
+		/**
+		 * @param hilo número de hilo
+		 * @param iteracion número de iteración del hilo
+		 * @return true si la operación ha ido bien
+		 * @throws IOException con un error de entrada/salida
+		 * @throws InterruptedException si se interrumpe la operación
+		 */
+		boolean ejecutar(int hilo, int iteracion) throws IOException, InterruptedException ;
+	}
+}
@@ -0,0 +1,95 @@
+package es.iesjandula.base.base_server.benchmarks.carga;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Latencias de un único hilo de la prueba de carga. Cada hilo tiene el suyo, de manera que registrar una medida
+ * no añade contención a la prueba; al final se combinan todos para calcular los percentiles
+ */
+public class RegistroLatencias
+{
+	/** Atributo - latencias en nanosegundos */
+	private long[] latencias = new long[1 << 16] ;
+
+	/** Atributo - número de latencias registradas */
+	private int total ;
+
+	/** Atributo - operaciones fallidas */
+	private int errores ;
+
+	/**
+	 * @param nanos latencia de una operación correcta
+	 */
+	public void registrar(long nanos)
+	{
+		if (this.total == this.latencias.length)
+		{
+			this.latencias = Arrays.copyOf(this.latencias, this.latencias.length * 2) ;
+		}
+
+		this.latencias[this.total++] = nanos ;
+	}
+
+	/**
+	 * Registra una operación fallida
+	 */
+	public void registrarError()
+	{
+		this.errores++ ;
+	}
+
+	/**
+	 * @param registros registros de todos los hilos
+	 * @param titulo título del resumen
+	 * @param segundos duración de la medida en segundos
+	 * @return el resumen con el throughput y los percentiles
+	 */
+	public static String resumir(List<RegistroLatencias> registros, String titulo, double segundos)
+	{
+		int total 	= 0 ;
+		int errores = 0 ;
+
+		for (RegistroLatencias registro : registros)
+		{
+			total   += registro.total ;
+			errores += registro.errores ;
+		}
+
+		long[] todas = new long[total] ;
+		int posicion = 0 ;
+
+		for (RegistroLatencias registro : registros)
+		{
+			System.arraycopy(registro.latencias, 0, todas, posicion, registro.total) ;
+			posicion += registro.total ;
+		}
+
+		Arrays.sort(todas) ;
+
+		return String.format("%s: %d correctas, %d errores, %.0f op/s, p50 %.1f µs, p99 %.1f µs, máx %.1f µs",
+							 titulo, total, errores, total / segundos,
+							 RegistroLatencias.percentil(todas, 0.50), RegistroLatencias.percentil(todas, 0.99),
+							 RegistroLatencias.percentil(todas, 1.0)) ;
+	}
+
+	/**
+	 * @param ordenadas latencias ordenadas
+	 * @param percentil percentil entre 0 y 1
+	 * @return la latencia del percentil en microsegundos
+	 */
+	private static double percentil(long[] ordenadas, double percentil)
+	{
+		if (ordenadas.length == 0)
+		{
+			return 0.0 ;
+		}
+
+		int indice = (int) Math.ceil(percentil * ordenadas.length) - 1 ;
+
+		return ordenadas[Math.max(0, indice)] / (double) TimeUnit.MICROSECONDS.toNanos(1) ;
+	}
+}
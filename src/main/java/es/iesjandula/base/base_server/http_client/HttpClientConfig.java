@@ -0,0 +1,93 @@
+package es.iesjandula.base.base_server.http_client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import es.iesjandula.base.base_server.utils.HttpClientUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Cliente HTTP compartido y gestionado por Spring. Las conexiones se reutilizan (keep-alive) desde un pool
+ * acotado por ruta, y las inactivas o caducadas se cierran en segundo plano
+ */
+@Slf4j
+@Configuration
+public class HttpClientConfig
+{
+	/** Nombre del bean del cliente HTTP compartido */
+	public static final String BEAN_HTTP_CLIENT = "baseServerHttpClient" ;
+	
+	/** Número máximo de conexiones del pool */
+	@Value("${reaktor.httpClient.maxConexiones:50}")
+	private int maxConexiones ;
+	
+	/** Número máximo de conexiones del pool contra un mismo servidor */
+	@Value("${reaktor.httpClient.maxConexionesPorRuta:10}")
+	private int maxConexionesPorRuta ;
+	
+	/** Tiempo máximo (en milisegundos) que se mantiene viva una conexión si el servidor no indica otro */
+	@Value("${reaktor.httpClient.keepAliveMillis:30000}")
+	private long keepAliveMillis ;
+	
+	/** Tiempo (en milisegundos) de inactividad tras el cual se cierra una conexión del pool */
+	@Value("${reaktor.httpClient.inactividadMaximaMillis:30000}")
+	private long inactividadMaximaMillis ;
+	
+	/** Tiempo (en milisegundos) de inactividad tras el cual se valida la conexión antes de reutilizarla */
+	@Value("${reaktor.httpClient.validarTrasInactividadMillis:2000}")
+	private int validarTrasInactividadMillis ;
+	
+	/** Timeout por defecto (en milisegundos). Cada petición puede sobrescribirlo con {@link HttpClientUtils#crearRequestConfig(int)} */
+	@Value("${reaktor.httpClient.timeoutMillis:10000}")
+	private int timeoutMillis ;
+	
+	/**
+	 * @return el pool de conexiones. Spring lo cierra al parar el contexto
+	 */
+	@Bean
+	public PoolingHttpClientConnectionManager baseServerConnectionManager()
+	{
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager() ;
+		
+		connectionManager.setMaxTotal(this.maxConexiones) ;
+		connectionManager.setDefaultMaxPerRoute(this.maxConexionesPorRuta) ;
+		connectionManager.setValidateAfterInactivity(this.validarTrasInactividadMillis) ;
+		
+		log.info("Pool HTTP: {} conexiones como máximo, {} por ruta", this.maxConexiones, this.maxConexionesPorRuta) ;
+		
+		return connectionManager ;
+	}
+	
+	/**
+	 * @param baseServerConnectionManager pool de conexiones
+	 * @return el cliente HTTP compartido
+	 */
+	@Bean(name = BEAN_HTTP_CLIENT)
+	public CloseableHttpClient baseServerHttpClient(PoolingHttpClientConnectionManager baseServerConnectionManager)
+	{
+		return HttpClients.custom()
+						  .setConnectionManager(baseServerConnectionManager)
+						  // El pool es un bean propio, así que es Spring quien lo cierra y no el cliente
+						  .setConnectionManagerShared(true)
+						  .setDefaultRequestConfig(HttpClientUtils.crearRequestConfig(this.timeoutMillis))
+						  .setKeepAliveStrategy((response, context) ->
+						  {
+							  // Respetamos la cabecera "Keep-Alive" del servidor, acotada por nuestro máximo
+							  long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context) ;
+							  
+							  return keepAlive > 0 ? Math.min(keepAlive, this.keepAliveMillis) : this.keepAliveMillis ;
+						  })
+						  .evictExpiredConnections()
+						  .evictIdleConnections(this.inactividadMaximaMillis, TimeUnit.MILLISECONDS)
+						  .build() ;
+	}
+}
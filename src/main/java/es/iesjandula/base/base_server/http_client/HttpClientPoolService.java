@@ -0,0 +1,57 @@
+package es.iesjandula.base.base_server.http_client;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import es.iesjandula.base.base_server.http_client.models.DtoEstadisticasPool;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Expone las estadísticas del pool del cliente HTTP compartido para poder dimensionarlo con carga real
+ */
+@Service
+public class HttpClientPoolService
+{
+	@Autowired
+	private PoolingHttpClientConnectionManager baseServerConnectionManager ;
+	
+	/**
+	 * @return las estadísticas totales del pool y por ruta
+	 */
+	public DtoEstadisticasPool obtenerEstadisticas()
+	{
+		Map<String, DtoEstadisticasPool> rutas = new TreeMap<String, DtoEstadisticasPool>() ;
+		
+		for (HttpRoute httpRoute : this.baseServerConnectionManager.getRoutes())
+		{
+			rutas.put(httpRoute.getTargetHost().toURI(), this.convertir(this.baseServerConnectionManager.getStats(httpRoute), null)) ;
+		}
+		
+		return this.convertir(this.baseServerConnectionManager.getTotalStats(), rutas) ;
+	}
+	
+	/**
+	 * @return las estadísticas totales del pool, sin el detalle por ruta
+	 */
+	public PoolStats obtenerEstadisticasTotales()
+	{
+		return this.baseServerConnectionManager.getTotalStats() ;
+	}
+	
+	/**
+	 * @param poolStats estadísticas del pool
+	 * @param rutas estadísticas por ruta (puede ser null)
+	 * @return el DTO con las estadísticas
+	 */
+	private DtoEstadisticasPool convertir(PoolStats poolStats, Map<String, DtoEstadisticasPool> rutas)
+	{
+		return new DtoEstadisticasPool(poolStats.getLeased(), poolStats.getAvailable(), poolStats.getPending(), poolStats.getMax(), rutas) ;
+	}
+}
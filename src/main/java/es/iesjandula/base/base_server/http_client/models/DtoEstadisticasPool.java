@@ -0,0 +1,31 @@
+package es.iesjandula.base.base_server.http_client.models;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class DtoEstadisticasPool
+{
+	/** Atributo - conexiones prestadas (en uso) */
+	private int prestadas ;
+	
+	/** Atributo - conexiones disponibles (abiertas y libres) */
+	private int disponibles ;
+	
+	/** Atributo - peticiones esperando una conexión */
+	private int pendientes ;
+	
+	/** Atributo - máximo de conexiones */
+	private int maximo ;
+	
+	/** Atributo - estadísticas por ruta (host) */
+	private Map<String, DtoEstadisticasPool> rutas ;
+}
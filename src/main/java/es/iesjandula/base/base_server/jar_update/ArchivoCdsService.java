@@ -0,0 +1,247 @@
+package es.iesjandula.base.base_server.jar_update;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Genera el archivo de Class Data Sharing (AppCDS) del fat-jar, "<jar>.jsa", para que los reinicios de JarUpdateService
+ * carguen muchas menos clases desde cero. El microservicio debe arrancarse con "-XX:SharedArchiveFile=<jar>.jsa"; si el
+ * archivo no existe o no corresponde al JAR, la JVM lo ignora y arranca igual.
+ *
+ * El archivo se genera con una ejecución de entrenamiento del propio JAR ("-XX:ArchiveClassesAtExit"), que arranca el
+ * contexto de Spring y termina antes de abrir el puerto ("spring.context.exit=onRefresh"). Se escribe en un fichero
+ * temporal y se mueve al final, para que nunca se arranque con un archivo a medias.
+ *
+ * Como el refresco del contexto crea todos los beans con la configuración de producción, la ejecución de entrenamiento
+ * desactiva las migraciones y la inicialización de la base de datos y activa el perfil "appcds-entrenamiento", con el
+ * que el microservicio puede desactivar cualquier otro trabajo contra sistemas externos
+ */
+@Slf4j
+@Service
+public class ArchivoCdsService
+{
+	/** Extensión del archivo CDS, que se añade a la ruta del JAR */
+	public static final String EXTENSION_ARCHIVO = ".jsa" ;
+
+	/** Perfil que se añade a la ejecución de entrenamiento */
+	public static final String PERFIL_ENTRENAMIENTO = "appcds-entrenamiento" ;
+
+	/** Propiedad que desactiva la generación en la ejecución de entrenamiento, para que no se genere a sí misma */
+	private static final String PROPIEDAD_HABILITADO = "reaktor.appCds.habilitado" ;
+
+	/** Propiedades de la ejecución de entrenamiento para que no modifique la base de datos ni llame a otros servicios */
+	private static final List<String> PROPIEDADES_ENTRENAMIENTO = List.of("spring.flyway.enabled=false",
+																		  "spring.liquibase.enabled=false",
+																		  "spring.sql.init.mode=never",
+																		  "spring.jpa.hibernate.ddl-auto=none",
+																		  "spring.jpa.defer-datasource-initialization=false",
+																		  "spring.batch.job.enabled=false",
+																		  "reaktor.calentamiento.habilitado=false",
+																		  "spring.profiles.include=" + PERFIL_ENTRENAMIENTO) ;
+
+	/** Si es true, se genera el archivo CDS al arrancar (si falta o es antiguo) y al detectar un JAR nuevo */
+	@Value("${" + PROPIEDAD_HABILITADO + ":false}")
+	private boolean habilitado ;
+
+	/** Tiempo máximo (en segundos) de la ejecución de entrenamiento */
+	@Value("${reaktor.appCds.timeoutSegundos:120}")
+	private long timeoutSegundos ;
+
+	@Autowired
+	private ApplicationArguments applicationArguments ;
+
+	/** Atributo - bloqueo para que no haya dos ejecuciones de entrenamiento a la vez */
+	private final ReentrantLock bloqueo = new ReentrantLock() ;
+
+	/**
+	 * @return true si la generación del archivo CDS está habilitada
+	 */
+	public boolean isHabilitado()
+	{
+		return this.habilitado ;
+	}
+
+	/**
+	 * @param rutaJar ruta del JAR
+	 * @return la ruta del archivo CDS del JAR
+	 */
+	public Path obtenerRutaArchivo(String rutaJar)
+	{
+		return Paths.get(rutaJar + EXTENSION_ARCHIVO) ;
+	}
+
+	/**
+	 * Genera el archivo CDS en segundo plano si no existe o es anterior al JAR
+	 * @param rutaJar ruta del JAR en ejecución
+	 */
+	public void comprobarArchivo(String rutaJar)
+	{
+		if (!this.habilitado)
+		{
+			return ;
+		}
+
+		File archivo = this.obtenerRutaArchivo(rutaJar).toFile() ;
+
+		if (archivo.exists() && archivo.lastModified() >= new File(rutaJar).lastModified())
+		{
+			if (!this.isArchivoEnUso())
+			{
+				log.warn("El archivo CDS {} está al día, pero el microservicio no se ha arrancado con -XX:SharedArchiveFile={}",
+						 archivo, archivo) ;
+			}
+
+			return ;
+		}
+
+		Thread thread = new Thread(() -> this.generarArchivo(rutaJar), "reaktor-appcds") ;
+		thread.setDaemon(true) ;
+		thread.start() ;
+	}
+
+	/**
+	 * Genera el archivo CDS del JAR con una ejecución de entrenamiento. Bloquea hasta que termina (hasta
+	 * "reaktor.appCds.timeoutSegundos"), así que no debe llamarse desde el planificador de tareas @Scheduled
+	 *
+	 * @param rutaJar ruta del JAR
+	 * @return true si se ha generado el archivo
+	 */
+	public boolean generarArchivo(String rutaJar)
+	{
+		if (!this.habilitado)
+		{
+			return false ;
+		}
+
+		this.bloqueo.lock() ;
+		try
+		{
+			Path archivo 	= this.obtenerRutaArchivo(rutaJar) ;
+			Path temporal 	= Paths.get(archivo + ".tmp") ;
+			long inicio 	= System.nanoTime() ;
+
+			Files.deleteIfExists(temporal) ;
+
+			log.info("Generando el archivo CDS {} para {}...", archivo, rutaJar) ;
+
+			Process process = new ProcessBuilder(this.construirComando(rutaJar, temporal))
+										.redirectErrorStream(true)
+										.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+										.start() ;
+
+			if (!process.waitFor(this.timeoutSegundos, TimeUnit.SECONDS))
+			{
+				process.destroyForcibly() ;
+
+				log.error("La ejecución de entrenamiento del archivo CDS ha superado {} segundos, se cancela", this.timeoutSegundos) ;
+				return false ;
+			}
+
+			if (process.exitValue() != 0 || !Files.exists(temporal))
+			{
+				log.error("La ejecución de entrenamiento del archivo CDS ha terminado con código {}", process.exitValue()) ;
+				return false ;
+			}
+
+			// El archivo nuevo sustituye al anterior de una vez
+			Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+
+			log.info("Archivo CDS {} generado en {} ms", archivo, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio)) ;
+			return true ;
+		}
+		catch (IOException ioException)
+		{
+			log.error("IOException mientras se generaba el archivo CDS de {}", rutaJar, ioException) ;
+			return false ;
+		}
+		catch (InterruptedException interruptedException)
+		{
+			Thread.currentThread().interrupt() ;
+			return false ;
+		}
+		finally
+		{
+			this.bloqueo.unlock() ;
+		}
+	}
+
+	/**
+	 * La ejecución de entrenamiento usa la misma JVM, las mismas propiedades de sistema y los mismos argumentos que este
+	 * proceso, para que cargue las mismas clases
+	 *
+	 * @param rutaJar ruta del JAR
+	 * @param temporal fichero donde se vuelca el archivo CDS
+	 * @return el comando de la ejecución de entrenamiento
+	 */
+	private List<String> construirComando(String rutaJar, Path temporal)
+	{
+		List<String> comando = new ArrayList<String>() ;
+
+		comando.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString()) ;
+
+		for (String argumento : ManagementFactory.getRuntimeMXBean().getInputArguments())
+		{
+			// Las propiedades de sistema sí, pero no las opciones de CDS, depuración o agentes del proceso actual
+			if (argumento.startsWith("-D") && !argumento.startsWith("-D" + PROPIEDAD_HABILITADO + "="))
+			{
+				comando.add(argumento) ;
+			}
+		}
+
+		comando.add("-XX:ArchiveClassesAtExit=" + temporal) ;
+		comando.add("-Dspring.context.exit=onRefresh") ;
+		comando.add("-D" + PROPIEDAD_HABILITADO + "=false") ;
+
+		// Después de las del proceso actual, para que prevalezcan sobre ellas
+		for (String propiedad : PROPIEDADES_ENTRENAMIENTO)
+		{
+			comando.add("-D" + propiedad) ;
+		}
+		comando.add("-jar") ;
+		comando.add(rutaJar) ;
+
+		for (String argumento : this.applicationArguments.getSourceArgs())
+		{
+			if (!argumento.startsWith("--" + PROPIEDAD_HABILITADO + "="))
+			{
+				comando.add(argumento) ;
+			}
+		}
+
+		return comando ;
+	}
+
+	/**
+	 * @return true si la JVM se ha arrancado con un archivo CDS propio
+	 */
+	private boolean isArchivoEnUso()
+	{
+		for (String argumento : ManagementFactory.getRuntimeMXBean().getInputArguments())
+		{
+			if (argumento.startsWith("-XX:SharedArchiveFile="))
+			{
+				return true ;
+			}
+		}
+
+		return false ;
+	}
+}
@@ -0,0 +1,96 @@
+package es.iesjandula.base.base_server.jar_update;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorCustomizer;
+import org.springframework.boot.task.SimpleAsyncTaskSchedulerCustomizer;
+import org.springframework.boot.task.ThreadPoolTaskExecutorCustomizer;
+import org.springframework.boot.task.ThreadPoolTaskSchedulerCustomizer;
+import org.springframework.boot.web.server.ConfigurableWebServerFactory;
+import org.springframework.boot.web.server.Shutdown;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Configura el cierre ordenado (drenaje) del microservicio, que usa JarUpdateService al detectar un JAR nuevo y también
+ * se aplica al parar el servicio desde el sistema operativo: el servidor web deja de aceptar conexiones y espera a las
+ * peticiones en curso, y los ejecutores de tareas (@Scheduled, @Async) esperan a las que se están ejecutando, en ambos
+ * casos hasta "reaktor.jarUpdate.drenajeSegundos"
+ */
+@Slf4j
+@Configuration
+public class DrenajeConfig
+{
+	/** Tiempo máximo (en segundos) que se espera a las peticiones y tareas en curso al parar el microservicio */
+	@Value("${reaktor.jarUpdate.drenajeSegundos:30}")
+	private long drenajeSegundos ;
+
+	/**
+	 * @param environment entorno, para respetar "server.shutdown" si el microservicio lo configura
+	 * @return personalizador que activa el cierre ordenado del servidor web (Tomcat o Netty)
+	 */
+	@Bean
+	public WebServerFactoryCustomizer<ConfigurableWebServerFactory> reaktorDrenajeWebServerCustomizer(Environment environment)
+	{
+		return webServerFactory ->
+		{
+			if (!environment.containsProperty("server.shutdown"))
+			{
+				webServerFactory.setShutdown(Shutdown.GRACEFUL) ;
+
+				log.info("Cierre ordenado del servidor web activado, con {} segundos de drenaje", this.drenajeSegundos) ;
+			}
+		} ;
+	}
+
+	/**
+	 * @return personalizador del planificador de tareas @Scheduled (pool de hilos)
+	 */
+	@Bean
+	public ThreadPoolTaskSchedulerCustomizer reaktorDrenajeThreadPoolTaskSchedulerCustomizer()
+	{
+		return threadPoolTaskScheduler ->
+		{
+			threadPoolTaskScheduler.setWaitForTasksToCompleteOnShutdown(true) ;
+			threadPoolTaskScheduler.setAwaitTerminationSeconds((int) this.drenajeSegundos) ;
+		} ;
+	}
+
+	/**
+	 * @return personalizador del ejecutor de tareas @Async (pool de hilos)
+	 */
+	@Bean
+	public ThreadPoolTaskExecutorCustomizer reaktorDrenajeThreadPoolTaskExecutorCustomizer()
+	{
+		return threadPoolTaskExecutor ->
+		{
+			threadPoolTaskExecutor.setWaitForTasksToCompleteOnShutdown(true) ;
+			threadPoolTaskExecutor.setAwaitTerminationSeconds((int) this.drenajeSegundos) ;
+		} ;
+	}
+
+	/**
+	 * @return personalizador del planificador de tareas @Scheduled (hilos virtuales)
+	 */
+	@Bean
+	public SimpleAsyncTaskSchedulerCustomizer reaktorDrenajeSimpleAsyncTaskSchedulerCustomizer()
+	{
+		return simpleAsyncTaskScheduler -> simpleAsyncTaskScheduler.setTaskTerminationTimeout(Duration.ofSeconds(this.drenajeSegundos).toMillis()) ;
+	}
+
+	/**
+	 * @return personalizador del ejecutor de tareas @Async (hilos virtuales)
+	 */
+	@Bean
+	public SimpleAsyncTaskExecutorCustomizer reaktorDrenajeSimpleAsyncTaskExecutorCustomizer()
+	{
+		return simpleAsyncTaskExecutor -> simpleAsyncTaskExecutor.setTaskTerminationTimeout(Duration.ofSeconds(this.drenajeSegundos).toMillis()) ;
+	}
+}
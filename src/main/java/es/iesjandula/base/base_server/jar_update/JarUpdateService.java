@@ -1,17 +1,54 @@
 package es.iesjandula.base.base_server.jar_update;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipFile;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.DefaultLifecycleProcessor;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * @author Francisco Manuel Benítez Chico
+ * 
+ * Detecta la actualización del fat-jar vigilando su directorio (WatchService) y, como respaldo por si el sistema de
+ * ficheros no notifica los cambios, comprobándolo periódicamente. Antes de parar el microservicio espera a que el JAR
+ * nuevo esté completo: un tiempo sin cambios, el mismo tamaño, el directorio central del ZIP legible y, si existe
+ * "<jar>.sha256", el mismo resumen SHA-256. Así no se para con un JAR a medio subir. Esas comprobaciones (y la
+ * generación del archivo CDS) se hacen en el hilo de vigilancia o, las periódicas, en un hilo propio, nunca en el
+ * planificador de tareas @Scheduled que comparten los microservicios
  */
 @Service
 @Configuration
@@ -27,6 +64,49 @@ public class JarUpdateService
 	
 	/** Atributo - Ultima modificacion */
     private long ultimaModificacionJar ;
+    
+	/** Extensión del fichero opcional con el resumen SHA-256 del JAR (formato de sha256sum) */
+	private static final String EXTENSION_SHA256 = ".sha256" ;
+	
+	/** Tiempo (en milisegundos) sin cambios en el JAR tras el cual se considera que ha terminado de escribirse */
+	@Value("${reaktor.jarUpdate.esperaMillis:2000}")
+	private long esperaMillis ;
+	
+	/** Tiempo máximo (en segundos) que se espera a las peticiones y tareas en curso antes de finalizar */
+	@Value("${reaktor.jarUpdate.drenajeSegundos:30}")
+	private long drenajeSegundos ;
+	
+	/** Tiempo (en milisegundos) entre dejar de estar disponible y dejar de aceptar conexiones, para que el balanceador lo note */
+	@Value("${reaktor.jarUpdate.esperaNoDisponibleMillis:0}")
+	private long esperaNoDisponibleMillis ;
+	
+	/** Si es true, se vigila el directorio del JAR para detectar su actualización al instante */
+	@Value("${reaktor.jarUpdate.vigilar:true}")
+	private boolean vigilar ;
+    
+    @Autowired
+    private ArchivoCdsService archivoCdsService ;
+    
+    @Autowired
+    private ConfigurableApplicationContext applicationContext ;
+    
+    /** Atributo - bloqueo para que la vigilancia y la comprobación periódica no comprueben el JAR a la vez */
+    private final ReentrantLock bloqueo = new ReentrantLock() ;
+    
+    /** Atributo - servicio de vigilancia del directorio del JAR */
+    private WatchService watchService ;
+    
+    /** Atributo - hilo propio de la comprobación periódica, que puede tardar segundos (espera, ZIP y SHA-256) */
+    private ExecutorService ejecutorComprobacion ;
+    
+    /** Atributo - true si hay una comprobación periódica pendiente o en curso, para no encolar otra */
+    private final AtomicBoolean comprobacionPendiente = new AtomicBoolean() ;
+    
+    /** Atributo - modificación (del JAR y de su resumen) del último JAR nuevo rechazado, para no volver a comprobarlo */
+    private String jarRechazado ;
+    
+    /** Atributo - true si ya se está finalizando la aplicación */
+    private boolean finalizando ;
 
     @PostConstruct
     public void init()
@@ -45,7 +125,7 @@ public class JarUpdateService
         File jarFile = new File(this.rutaAbsolutaAlJar) ;
         
         // Si el JAR definitivamente existe tendremos en cuenta este proceso
-        this.jarValido = jarFile.exists() ;
+        this.jarValido = jarFile.isFile() ;
         
         // Si el JAR es válido, hacemos la asignación de la última modificación
         if (this.jarValido)
@@ -53,9 +133,48 @@ public class JarUpdateService
         	this.ultimaModificacionJar = jarFile.lastModified() ;
         	
         	log.info("Última modificación del JAR en el tiempo {}", this.ultimaModificacionJar) ;
+        	
+        	// Si falta el archivo CDS del JAR o es antiguo, lo generamos para el próximo arranque
+        	this.archivoCdsService.comprobarArchivo(this.rutaAbsolutaAlJar) ;
+        	
+        	this.ejecutorComprobacion = Executors.newSingleThreadExecutor(runnable ->
+        	{
+        		Thread thread = new Thread(runnable, "reaktor-jar-update-comprobacion") ;
+        		thread.setDaemon(true) ;
+        		return thread ;
+        	}) ;
+        	
+        	if (this.vigilar)
+        	{
+        		this.arrancarVigilancia(jarFile.toPath().toAbsolutePath()) ;
+        	}
         }
     }
     
+    /**
+     * Para la vigilancia del directorio del JAR
+     */
+    @PreDestroy
+    public void destroy()
+    {
+    	if (this.ejecutorComprobacion != null)
+    	{
+    		this.ejecutorComprobacion.shutdown() ;
+    	}
+    	
+    	if (this.watchService != null)
+    	{
+    		try
+    		{
+    			this.watchService.close() ;
+    		}
+    		catch (IOException ioException)
+    		{
+    			log.warn("IOException mientras se cerraba la vigilancia del JAR", ioException) ;
+    		}
+    	}
+    }
+    
     /**
      * Eliminamos prefijos innecesarios
      */
@@ -111,24 +230,315 @@ public class JarUpdateService
     }
 
     /**
-     * Ejecutar cada 5 segundos
+     * Comprobación periódica de respaldo, por si el sistema de ficheros no notifica los cambios (por ejemplo, en NFS).
+     * Solo la encarga al hilo de comprobación, para no ocupar el planificador de tareas mientras se comprueba el JAR
      */
-    @Scheduled(fixedRate = 5000)
+    @Scheduled(fixedDelayString = "${reaktor.jarUpdate.comprobacionMillis:60000}")
     public void checkJarUpdate()
     {
-    	// Comprobamos si es un JAR válido
-    	if (this.jarValido)
+    	// Comprobamos si es un JAR válido y no hay ya una comprobación pendiente
+    	if (this.jarValido && this.comprobacionPendiente.compareAndSet(false, true))
+    	{
+    		try
+    		{
+    			this.ejecutorComprobacion.execute(() ->
+    			{
+    				try
+    				{
+    					this.comprobarActualizacion() ;
+    				}
+    				finally
+    				{
+    					this.comprobacionPendiente.set(false) ;
+    				}
+    			}) ;
+    		}
+    		catch (RejectedExecutionException rejectedExecutionException)
+    		{
+    			// Se está parando el contexto de Spring
+    			this.comprobacionPendiente.set(false) ;
+    		}
+    	}
+    }
+    
+    /**
+     * Si el JAR ha sido actualizado y está completo, finaliza la aplicación
+     */
+    private void comprobarActualizacion()
+    {
+    	// Si ya lo está comprobando el otro hilo, no hace falta hacerlo dos veces
+    	if (!this.bloqueo.tryLock())
+    	{
+    		return ;
+    	}
+    	
+    	try
     	{
 	    	File jarFile = new File(this.rutaAbsolutaAlJar) ;
 	        
 	    	// Verificamos si el archivo JAR ha sido actualizado
-	        if (jarFile.lastModified() > this.ultimaModificacionJar)
+	        if (!this.finalizando && jarFile.lastModified() > this.ultimaModificacionJar && this.isJarCompleto(jarFile))
 	        {
 	        	log.info("¡El JAR ha sido actualizado! Finalizando la aplicación...") ;
+	        	
+	        	this.finalizando = true ;
+	        	
+	        	// Generamos el archivo CDS del JAR nuevo mientras seguimos atendiendo peticiones, para que arranque antes
+	        	this.archivoCdsService.generarArchivo(this.rutaAbsolutaAlJar) ;
 	
-	        	// Cerramos esta aplicación
-	        	System.exit(0) ;
+	        	// Cerramos esta aplicación de forma ordenada
+	        	this.finalizar() ;
 	        }
     	}
+    	catch (InterruptedException interruptedException)
+    	{
+    		Thread.currentThread().interrupt() ;
+    	}
+    	finally
+    	{
+    		this.bloqueo.unlock() ;
+    	}
+    }
+    
+    /**
+     * Drenaje antes de finalizar: el microservicio deja de estar disponible (readiness), el servidor web deja de aceptar
+     * conexiones y espera a las peticiones en curso, y los ejecutores esperan a las tareas en curso, en cada caso hasta
+     * "reaktor.jarUpdate.drenajeSegundos" (ver DrenajeConfig). Después, el sistema operativo lo relanza como siempre
+     * 
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    private void finalizar() throws InterruptedException
+    {
+    	AvailabilityChangeEvent.publish(this.applicationContext, ReadinessState.REFUSING_TRAFFIC) ;
+    	
+    	if (this.esperaNoDisponibleMillis > 0)
+    	{
+    		Thread.sleep(this.esperaNoDisponibleMillis) ;
+    	}
+    	
+    	// El plazo para que el servidor web termine las peticiones en curso es el de cada fase del cierre del contexto
+    	Object lifecycleProcessor = this.applicationContext.getBean(AbstractApplicationContext.LIFECYCLE_PROCESSOR_BEAN_NAME) ;
+    	
+    	if (lifecycleProcessor instanceof DefaultLifecycleProcessor defaultLifecycleProcessor)
+    	{
+    		defaultLifecycleProcessor.setTimeoutPerShutdownPhase(TimeUnit.SECONDS.toMillis(this.drenajeSegundos)) ;
+    	}
+    	
+    	log.info("Drenando las peticiones y tareas en curso (hasta {} segundos) antes de finalizar", this.drenajeSegundos) ;
+    	
+    	// Se cierra desde otro hilo, porque el cierre del contexto para el hilo de vigilancia y el de comprobación
+    	Thread thread = new Thread(() -> System.exit(SpringApplication.exit(this.applicationContext)), "reaktor-drenaje") ;
+    	thread.start() ;
+    }
+    
+    /**
+     * @param jarFile JAR nuevo
+     * @return true si el JAR ha terminado de escribirse y es íntegro
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    private boolean isJarCompleto(File jarFile) throws InterruptedException
+    {
+    	File sha256File = new File(this.rutaAbsolutaAlJar + EXTENSION_SHA256) ;
+    	
+    	long tamano 	 = jarFile.length() ;
+    	String version 	 = jarFile.lastModified() + "/" + sha256File.lastModified() ;
+    	
+    	// Si ya se rechazó este mismo JAR, esperamos a que vuelva a cambiar
+    	if (version.equals(this.jarRechazado))
+    	{
+    		return false ;
+    	}
+    	
+    	// Si el tamaño o la fecha cambian durante la espera, todavía se está escribiendo
+    	Thread.sleep(this.esperaMillis) ;
+    	
+    	if (tamano != jarFile.length() || !version.equals(jarFile.lastModified() + "/" + sha256File.lastModified()))
+    	{
+    		log.info("El JAR todavía se está escribiendo, se espera a que termine") ;
+    		return false ;
+    	}
+    	
+    	boolean completo = this.isZipLegible(jarFile) && this.isResumenCorrecto(jarFile, sha256File) ;
+    	
+    	if (!completo)
+    	{
+    		this.jarRechazado = version ;
+    	}
+    	
+    	return completo ;
+    }
+    
+    /**
+     * @param jarFile JAR nuevo
+     * @return true si se puede leer el directorio central del ZIP, que es lo último que se escribe
+     */
+    private boolean isZipLegible(File jarFile)
+    {
+    	try (ZipFile zipFile = new ZipFile(jarFile))
+    	{
+    		if (zipFile.getEntry("META-INF/MANIFEST.MF") == null)
+    		{
+    			log.warn("El JAR nuevo {} no tiene manifiesto, no se para el microservicio", jarFile) ;
+    			return false ;
+    		}
+    		
+    		return true ;
+    	}
+    	catch (IOException ioException)
+    	{
+    		log.warn("El JAR nuevo {} no es un ZIP completo, no se para el microservicio: {}", jarFile, ioException.getMessage()) ;
+    		return false ;
+    	}
+    }
+    
+    /**
+     * @param jarFile JAR nuevo
+     * @param sha256File fichero opcional con el resumen SHA-256 esperado
+     * @return true si no hay fichero de resumen o si el resumen del JAR coincide
+     */
+    private boolean isResumenCorrecto(File jarFile, File sha256File)
+    {
+    	if (!sha256File.isFile())
+    	{
+    		return true ;
+    	}
+    	
+    	try
+    	{
+    		// Formato de sha256sum: "<resumen>  <fichero>"
+    		String contenido = Files.readString(sha256File.toPath(), StandardCharsets.US_ASCII).trim() ;
+    		String esperado  = contenido.split("\\s+")[0] ;
+    		
+    		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256") ;
+    		
+    		try (InputStream inputStream = Files.newInputStream(jarFile.toPath()))
+    		{
+    			byte[] buffer = new byte[64 * 1024] ;
+    			int leidos ;
+    			
+    			while ((leidos = inputStream.read(buffer)) != -1)
+    			{
+    				messageDigest.update(buffer, 0, leidos) ;
+    			}
+    		}
+    		
+    		String calculado = HexFormat.of().formatHex(messageDigest.digest()) ;
+    		
+    		if (!calculado.equalsIgnoreCase(esperado))
+    		{
+    			log.warn("El resumen SHA-256 del JAR nuevo ({}) no coincide con el de {} ({}), no se para el microservicio",
+    					 calculado, sha256File, esperado) ;
+    			return false ;
+    		}
+    		
+    		return true ;
+    	}
+    	catch (IOException ioException)
+    	{
+    		log.warn("IOException mientras se comprobaba el resumen SHA-256 del JAR nuevo, no se para el microservicio", ioException) ;
+    		return false ;
+    	}
+    	catch (NoSuchAlgorithmException noSuchAlgorithmException)
+    	{
+    		log.error("NoSuchAlgorithmException mientras se comprobaba el resumen SHA-256 del JAR nuevo", noSuchAlgorithmException) ;
+    		return false ;
+    	}
+    }
+    
+    /**
+     * Arranca un hilo demonio que vigila el directorio del JAR
+     * @param jarPath ruta absoluta del JAR
+     */
+    private void arrancarVigilancia(Path jarPath)
+    {
+    	Path directorio = jarPath.getParent() ;
+    	
+    	try
+    	{
+    		this.watchService = FileSystems.getDefault().newWatchService() ;
+    		
+    		directorio.register(this.watchService,
+    							StandardWatchEventKinds.ENTRY_CREATE,
+    							StandardWatchEventKinds.ENTRY_MODIFY) ;
+    	}
+    	catch (IOException ioException)
+    	{
+    		log.warn("No se puede vigilar el directorio {}, la actualización del JAR se detectará periódicamente", directorio, ioException) ;
+    		return ;
+    	}
+    	
+    	Thread thread = new Thread(() -> this.vigilar(jarPath), "reaktor-jar-update") ;
+    	thread.setDaemon(true) ;
+    	thread.start() ;
+    	
+    	log.info("Vigilando {} para detectar la actualización del JAR", directorio) ;
+    }
+    
+    /**
+     * Bucle de vigilancia: cuando cambia el JAR (o su resumen) y deja de cambiar durante la espera, lo comprueba
+     * @param jarPath ruta absoluta del JAR
+     */
+    private void vigilar(Path jarPath)
+    {
+    	try
+    	{
+    		while (true)
+    		{
+    			WatchKey watchKey = this.watchService.take() ;
+    			
+    			// Agrupamos la ráfaga de eventos de la subida hasta que pasa la espera sin cambios
+    			boolean relevante = this.esRelevante(watchKey, jarPath) ;
+    			
+    			WatchKey siguiente = this.watchService.poll(this.esperaMillis, TimeUnit.MILLISECONDS) ;
+    			while (siguiente != null)
+    			{
+    				relevante = this.esRelevante(siguiente, jarPath) || relevante ;
+    				siguiente = this.watchService.poll(this.esperaMillis, TimeUnit.MILLISECONDS) ;
+    			}
+    			
+    			if (relevante)
+    			{
+    				this.comprobarActualizacion() ;
+    			}
+    		}
+    	}
+    	catch (InterruptedException interruptedException)
+    	{
+    		Thread.currentThread().interrupt() ;
+    	}
+    	catch (ClosedWatchServiceException closedWatchServiceException)
+    	{
+    		// Se ha parado el contexto de Spring
+    	}
+    }
+    
+    /**
+     * @param watchKey clave con los eventos
+     * @param jarPath ruta absoluta del JAR
+     * @return true si alguno de los eventos afecta al JAR o a su resumen
+     */
+    private boolean esRelevante(WatchKey watchKey, Path jarPath)
+    {
+    	String nombreJar = jarPath.getFileName().toString() ;
+    	boolean relevante = false ;
+    	
+    	for (WatchEvent<?> watchEvent : watchKey.pollEvents())
+    	{
+    		// Si se pierden eventos, lo comprobamos igualmente
+    		if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+    		{
+    			relevante = true ;
+    		}
+    		else if (watchEvent.context() instanceof Path)
+    		{
+    			String nombre = ((Path) watchEvent.context()).toString() ;
+    			
+    			relevante = relevante || nombre.equals(nombreJar) || nombre.equals(nombreJar + EXTENSION_SHA256) ;
+    		}
+    	}
+    	
+    	watchKey.reset() ;
+    	
+    	return relevante ;
     }
 }
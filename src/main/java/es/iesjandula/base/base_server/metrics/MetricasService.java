@@ -0,0 +1,316 @@
+package es.iesjandula.base.base_server.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import es.iesjandula.base.base_server.http_client.HttpClientPoolService;
+import es.iesjandula.base.base_server.security.service.CacheUsuariosVerificados;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Métricas del camino de autenticación de BaseServer, expuestas con Micrometer (Actuator/Prometheus).
+ *
+ * Están deshabilitadas por defecto (reaktor.metricas.habilitadas). Deshabilitadas, no se llama a System.nanoTime()
+ * ni se registra ningún meter: cada punto de medida se queda en comprobar un booleano. Los timers publican un
+ * histograma de cubetas fijas acotado entre el mínimo y el máximo esperados, que es barato de registrar y permite
+ * calcular percentiles en Prometheus agregando todas las instancias
+ */
+@Slf4j
+@Service
+public class MetricasService
+{
+	/** Resultado - la autenticación ha ido bien o el valor estaba en caché */
+	public static final String RESULTADO_ACIERTO   = "acierto" ;
+
+	/** Resultado - el valor no estaba en caché */
+	public static final String RESULTADO_FALLO 	   = "fallo" ;
+
+	/** Resultado - token rechazado */
+	public static final String RESULTADO_RECHAZADO = "rechazado" ;
+
+	/** Resultado - petición sin token */
+	public static final String RESULTADO_ANONIMO   = "anonimo" ;
+
+	/** Etiqueta con el resultado */
+	private static final String ETIQUETA_RESULTADO = "resultado" ;
+
+	/** true si se registran las métricas */
+	@Value("${reaktor.metricas.habilitadas:false}")
+	private boolean habilitadas ;
+
+	@Autowired
+	private ObjectProvider<MeterRegistry> meterRegistryProvider ;
+
+	@Autowired
+	private HttpClientPoolService httpClientPoolService ;
+
+	@Autowired
+	private CacheUsuariosVerificados cacheUsuariosVerificados ;
+
+	/** Atributo - Timer del filtro JWT con token válido */
+	private Timer timerFiltroAutenticado ;
+
+	/** Atributo - Timer del filtro JWT con token rechazado */
+	private Timer timerFiltroRechazado ;
+
+	/** Atributo - Timer del filtro JWT sin token */
+	private Timer timerFiltroAnonimo ;
+
+	/** Atributo - Timer de AuthorizationService.obtenerUsuario */
+	private Timer timerObtenerUsuario ;
+
+	/** Atributo - Timer de AuthorizationService.tokenExpirado */
+	private Timer timerTokenExpirado ;
+
+	/** Atributo - Timer de AuthorizationService.obtenerTokenPersonalizado */
+	private Timer timerTokenPersonalizado ;
+
+	/** Atributo - Token personalizado válido en SessionStorageService */
+	private Counter contadorSesionAcierto ;
+
+	/** Atributo - Token personalizado ausente o expirado en SessionStorageService */
+	private Counter contadorSesionFallo ;
+
+	/** Atributo - Token JWT encontrado en la caché de usuarios verificados */
+	private Counter contadorCacheAcierto ;
+
+	/** Atributo - Token JWT que no estaba en la caché de usuarios verificados */
+	private Counter contadorCacheFallo ;
+
+	/** Atributo - Token JWT descartado por la caché de rechazados */
+	private Counter contadorCacheRechazado ;
+
+	/**
+	 * Registra los meters si las métricas están habilitadas y hay un MeterRegistry en el contexto
+	 */
+	@PostConstruct
+	public void init()
+	{
+		if (this.habilitadas)
+		{
+			MeterRegistry meterRegistry = this.meterRegistryProvider.getIfAvailable() ;
+
+			if (meterRegistry == null)
+			{
+				log.warn("Métricas habilitadas, pero no hay ningún MeterRegistry en el contexto. Se deshabilitan") ;
+
+				this.habilitadas = false ;
+			}
+			else
+			{
+				this.registrar(meterRegistry) ;
+
+				log.info("Métricas de BaseServer habilitadas") ;
+			}
+		}
+	}
+
+	/**
+	 * @return true si se registran las métricas
+	 */
+	public boolean isHabilitadas()
+	{
+		return this.habilitadas ;
+	}
+
+	/**
+	 * @return el instante de inicio de una medida, o 0 si las métricas están deshabilitadas
+	 */
+	public long iniciar()
+	{
+		return this.habilitadas ? System.nanoTime() : 0L ;
+	}
+
+	/**
+	 * @param inicio instante devuelto por {@link #iniciar()}
+	 * @param resultado {@link #RESULTADO_ACIERTO}, {@link #RESULTADO_RECHAZADO} o {@link #RESULTADO_ANONIMO}
+	 */
+	public void registrarFiltro(long inicio, String resultado)
+	{
+		if (this.habilitadas)
+		{
+			Timer timer = this.timerFiltroAnonimo ;
+
+			if (RESULTADO_ACIERTO.equals(resultado))
+			{
+				timer = this.timerFiltroAutenticado ;
+			}
+			else if (RESULTADO_RECHAZADO.equals(resultado))
+			{
+				timer = this.timerFiltroRechazado ;
+			}
+
+			this.medir(timer, inicio) ;
+		}
+	}
+
+	/**
+	 * @param inicio instante devuelto por {@link #iniciar()}
+	 */
+	public void registrarObtenerUsuario(long inicio)
+	{
+		if (this.habilitadas)
+		{
+			this.medir(this.timerObtenerUsuario, inicio) ;
+		}
+	}
+
+	/**
+	 * @param inicio instante devuelto por {@link #iniciar()}
+	 */
+	public void registrarTokenExpirado(long inicio)
+	{
+		if (this.habilitadas)
+		{
+			this.medir(this.timerTokenExpirado, inicio) ;
+		}
+	}
+
+	/**
+	 * @param inicio instante devuelto por {@link #iniciar()}
+	 */
+	public void registrarTokenPersonalizado(long inicio)
+	{
+		if (this.habilitadas)
+		{
+			this.medir(this.timerTokenPersonalizado, inicio) ;
+		}
+	}
+
+	/**
+	 * @param acierto true si el token personalizado de SessionStorageService era válido
+	 */
+	public void contarTokenSesion(boolean acierto)
+	{
+		if (this.habilitadas)
+		{
+			(acierto ? this.contadorSesionAcierto : this.contadorSesionFallo).increment() ;
+		}
+	}
+
+	/**
+	 * @param resultado {@link #RESULTADO_ACIERTO}, {@link #RESULTADO_FALLO} o {@link #RESULTADO_RECHAZADO}
+	 */
+	public void contarCacheUsuarios(String resultado)
+	{
+		if (this.habilitadas)
+		{
+			Counter counter = this.contadorCacheFallo ;
+
+			if (RESULTADO_ACIERTO.equals(resultado))
+			{
+				counter = this.contadorCacheAcierto ;
+			}
+			else if (RESULTADO_RECHAZADO.equals(resultado))
+			{
+				counter = this.contadorCacheRechazado ;
+			}
+
+			counter.increment() ;
+		}
+	}
+
+	/**
+	 * @param timer timer
+	 * @param inicio instante devuelto por {@link #iniciar()}
+	 */
+	private void medir(Timer timer, long inicio)
+	{
+		timer.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS) ;
+	}
+
+	/**
+	 * @param meterRegistry registro de métricas
+	 */
+	private void registrar(MeterRegistry meterRegistry)
+	{
+		// Autenticación local: de microsegundos (caché) a milisegundos (verificación de la firma)
+		this.timerFiltroAutenticado  = this.crearTimer(meterRegistry, "reaktor.jwt.filtro", "Autenticación del filtro JWT (sin el resto de la cadena)", RESULTADO_ACIERTO, Duration.ofNanos(1000), Duration.ofSeconds(1)) ;
+		this.timerFiltroRechazado 	 = this.crearTimer(meterRegistry, "reaktor.jwt.filtro", "Autenticación del filtro JWT (sin el resto de la cadena)", RESULTADO_RECHAZADO, Duration.ofNanos(1000), Duration.ofSeconds(1)) ;
+		this.timerFiltroAnonimo 	 = this.crearTimer(meterRegistry, "reaktor.jwt.filtro", "Autenticación del filtro JWT (sin el resto de la cadena)", RESULTADO_ANONIMO, Duration.ofNanos(1000), Duration.ofSeconds(1)) ;
+		this.timerObtenerUsuario 	 = this.crearTimer(meterRegistry, "reaktor.jwt.obtener.usuario", "AuthorizationService.obtenerUsuario", null, Duration.ofNanos(1000), Duration.ofSeconds(1)) ;
+		this.timerTokenExpirado 	 = this.crearTimer(meterRegistry, "reaktor.jwt.token.expirado", "AuthorizationService.tokenExpirado", null, Duration.ofNanos(1000), Duration.ofSeconds(1)) ;
+
+		// Puede incluir la petición a FirebaseServer, así que el máximo es el de un timeout
+		this.timerTokenPersonalizado = this.crearTimer(meterRegistry, "reaktor.token.personalizado", "AuthorizationService.obtenerTokenPersonalizado", null, Duration.ofNanos(1000), Duration.ofSeconds(30)) ;
+
+		this.contadorSesionAcierto 	= this.crearContador(meterRegistry, "reaktor.token.personalizado.sesion", "Token personalizado servido desde SessionStorageService", RESULTADO_ACIERTO) ;
+		this.contadorSesionFallo 	= this.crearContador(meterRegistry, "reaktor.token.personalizado.sesion", "Token personalizado servido desde SessionStorageService", RESULTADO_FALLO) ;
+		this.contadorCacheAcierto 	= this.crearContador(meterRegistry, "reaktor.jwt.cache", "Consultas a la caché de usuarios verificados", RESULTADO_ACIERTO) ;
+		this.contadorCacheFallo 	= this.crearContador(meterRegistry, "reaktor.jwt.cache", "Consultas a la caché de usuarios verificados", RESULTADO_FALLO) ;
+		this.contadorCacheRechazado = this.crearContador(meterRegistry, "reaktor.jwt.cache", "Consultas a la caché de usuarios verificados", RESULTADO_RECHAZADO) ;
+
+		// Los gauges solo se evalúan al leer las métricas
+		Gauge.builder("reaktor.jwt.cache.entradas", this.cacheUsuariosVerificados, CacheUsuariosVerificados::getNumeroEntradas)
+			 .description("Tokens JWT verificados en caché")
+			 .register(meterRegistry) ;
+
+		Gauge.builder("reaktor.jwt.cache.rechazados", this.cacheUsuariosVerificados, CacheUsuariosVerificados::getNumeroRechazados)
+			 .description("Tokens JWT rechazados en caché")
+			 .register(meterRegistry) ;
+
+		Gauge.builder("reaktor.http.pool.prestadas", this.httpClientPoolService, service -> service.obtenerEstadisticasTotales().getLeased())
+			 .description("Conexiones del pool HTTP en uso")
+			 .register(meterRegistry) ;
+
+		Gauge.builder("reaktor.http.pool.disponibles", this.httpClientPoolService, service -> service.obtenerEstadisticasTotales().getAvailable())
+			 .description("Conexiones del pool HTTP libres")
+			 .register(meterRegistry) ;
+
+		Gauge.builder("reaktor.http.pool.pendientes", this.httpClientPoolService, service -> service.obtenerEstadisticasTotales().getPending())
+			 .description("Peticiones esperando una conexión del pool HTTP")
+			 .register(meterRegistry) ;
+	}
+
+	/**
+	 * @param meterRegistry registro de métricas
+	 * @param nombre nombre del timer
+	 * @param descripcion descripción del timer
+	 * @param resultado valor de la etiqueta "resultado" (puede ser null)
+	 * @param minimo duración mínima esperada
+	 * @param maximo duración máxima esperada
+	 * @return el timer registrado
+	 */
+	private Timer crearTimer(MeterRegistry meterRegistry, String nombre, String descripcion, String resultado, Duration minimo, Duration maximo)
+	{
+		Timer.Builder builder = Timer.builder(nombre)
+									 .description(descripcion)
+									 .publishPercentileHistogram()
+									 .minimumExpectedValue(minimo)
+									 .maximumExpectedValue(maximo) ;
+
+		if (resultado != null)
+		{
+			builder.tag(ETIQUETA_RESULTADO, resultado) ;
+		}
+
+		return builder.register(meterRegistry) ;
+	}
+
+	/**
+	 * @param meterRegistry registro de métricas
+	 * @param nombre nombre del contador
+	 * @param descripcion descripción del contador
+	 * @param resultado valor de la etiqueta "resultado"
+	 * @return el contador registrado
+	 */
+	private Counter crearContador(MeterRegistry meterRegistry, String nombre, String descripcion, String resultado)
+	{
+		return Counter.builder(nombre)
+					  .description(descripcion)
+					  .tag(ETIQUETA_RESULTADO, resultado)
+					  .register(meterRegistry) ;
+	}
+}
@@ -0,0 +1,165 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Entries of a JAR sorted by name, so the entries of a folder are a contiguous range that is found with a binary
+ * search instead of scanning the whole central directory (thousands of library entries in a fat jar). The index of
+ * each open JarFile is built once and shared by every ResourcesHandlerJar that points at it (the JAR URL connections
+ * cache the JarFile). The indexes are held weakly by their JarFile, so they go away when the JarFile is no longer used
+ */
+public final class JarEntryIndex
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(JarEntryIndex.class);
+
+	/** Indexes by JarFile instance, which an open JarFile never changes. The indexes must not reference their JarFile */
+	private static final Map<JarFile, JarEntryIndex> INDEXES = new WeakHashMap<JarFile, JarEntryIndex>();
+
+	/** Lock of the indexes */
+	private static final ReentrantLock LOCK = new ReentrantLock();
+
+	/** Attribute - Entry names, sorted */
+	private final String[] names;
+
+	/** Attribute - Entries, in the same order as the names */
+	private final JarEntry[] entries;
+
+	/**
+	 * @param jarFile JAR file
+	 */
+	private JarEntryIndex(JarFile jarFile)
+	{
+		// Plain copies, as the entries of a JarFile keep a reference to it and the JarFile would never be collected
+		JarEntry[] sortedEntries = jarFile.stream().map(JarEntryIndex::copy).toArray(JarEntry[]::new);
+		Arrays.sort(sortedEntries, Comparator.comparing(JarEntry::getName));
+
+		this.entries = sortedEntries;
+		this.names   = new String[sortedEntries.length];
+
+		for (int i = 0; i < sortedEntries.length; i++)
+		{
+			this.names[i] = sortedEntries[i].getName();
+		}
+	}
+
+	/**
+	 * @param jarFile JAR file
+	 * @return the index of the JAR, built the first time it is requested for this JarFile
+	 */
+	public static JarEntryIndex of(JarFile jarFile)
+	{
+		LOCK.lock();
+		try
+		{
+			JarEntryIndex outcome = INDEXES.get(jarFile);
+
+			if (outcome == null)
+			{
+				long start = System.nanoTime();
+
+				outcome = new JarEntryIndex(jarFile);
+				INDEXES.put(jarFile, outcome);
+
+				LOGGER.debug("Indexed {} entries of {} in {} ms", outcome.names.length, jarFile.getName(),
+							 (System.nanoTime() - start) / 1000000L);
+			}
+
+			return outcome;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * The copy constructor reads the fields of the entry, which some JarFile implementations (the Spring Boot nested
+	 * JARs) only fill in their getters, so the attributes used by the handlers are copied through the getters
+	 *
+	 * @param jarEntry entry of the JarFile
+	 * @return a copy of the entry that does not reference the JarFile
+	 */
+	private static JarEntry copy(JarEntry jarEntry)
+	{
+		JarEntry outcome = new JarEntry(jarEntry);
+
+		if (jarEntry.getSize() >= 0)
+		{
+			outcome.setSize(jarEntry.getSize());
+		}
+
+		if (jarEntry.getCompressedSize() >= 0)
+		{
+			outcome.setCompressedSize(jarEntry.getCompressedSize());
+		}
+
+		if (jarEntry.getCrc() >= 0)
+		{
+			outcome.setCrc(jarEntry.getCrc());
+		}
+
+		if (jarEntry.getTime() >= 0)
+		{
+			outcome.setTime(jarEntry.getTime());
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Removes every index, for instance after closing the JAR files. They are built again when requested
+	 */
+	public static void clear()
+	{
+		LOCK.lock();
+		try
+		{
+			INDEXES.clear();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @param prefix folder inside the JAR ("/" separated, ending with "/")
+	 * @return the entries whose name starts with the prefix, sorted by name (the folders before their content)
+	 */
+	public List<JarEntry> getEntries(String prefix)
+	{
+		List<JarEntry> outcome = new ArrayList<JarEntry>();
+
+		for (int i = this.lowerBound(prefix); i < this.names.length && this.names[i].startsWith(prefix); i++)
+		{
+			outcome.add(this.entries[i]);
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * @param prefix prefix
+	 * @return position of the first name that is greater than or equal to the prefix
+	 */
+	private int lowerBound(String prefix)
+	{
+		int position = Arrays.binarySearch(this.names, prefix);
+
+		return position >= 0 ? position : -position - 1;
+	}
+}
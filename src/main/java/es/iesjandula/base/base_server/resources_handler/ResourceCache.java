@@ -0,0 +1,349 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * In-memory cache of the content of the resources of a ResourcesHandler, for the services that keep serving the same
+ * bundled files (templates, icons, drivers...). It is bounded by the total size of the cached content and evicts the
+ * least recently used resources. Each resource carries a strong ETag (SHA-256 of the content), and serve answers a
+ * matching "If-None-Match" with 304 Not Modified and no body, and a missing resource with 404 Not Found
+ */
+public final class ResourceCache implements Closeable
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCache.class);
+
+	/** Attribute - Source of the resources */
+	private final ResourcesView resourcesView;
+
+	/** Attribute - Maximum total size in bytes of the cached content */
+	private final long maxBytes;
+
+	/** Attribute - Cached resources by path, in access order (the eldest is the least recently used) */
+	private final LinkedHashMap<String, CachedResource> entries;
+
+	/** Attribute - Lock of the entries, as LinkedHashMap in access order changes on every get */
+	private final ReentrantLock lock;
+
+	/** Attribute - Total size in bytes of the cached content */
+	private long cachedBytes;
+
+	/**
+	 * @param resourcesHandler handler of the resource folder. The resources are read straight from it, not copied
+	 * @param maxBytes maximum total size in bytes of the cached content. Bigger resources are served but not cached
+	 * @throws BaseServerException if the resource folder cannot be opened
+	 */
+	public ResourceCache(ResourcesHandler resourcesHandler, long maxBytes) throws BaseServerException
+	{
+		this.resourcesView = resourcesHandler.openView(null);
+		this.maxBytes 	   = maxBytes;
+		this.entries 	   = new LinkedHashMap<String, CachedResource>(16, 0.75f, true);
+		this.lock 		   = new ReentrantLock();
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the resource, from the cache or read from the source and cached
+	 * @throws BaseServerException if the resource does not exist or cannot be read
+	 */
+	public CachedResource get(String path) throws BaseServerException
+	{
+		CachedResource outcome = this.find(path);
+
+		if (outcome == null)
+		{
+			// A missing resource is an error of the caller, not of the resources, so it is not logged as an error
+			String errorString = "The resource " + path + " does not exist";
+
+			LOGGER.debug(errorString);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the resource, from the cache or read from the source and cached, or null if it does not exist
+	 * @throws BaseServerException if the resource cannot be read
+	 */
+	private CachedResource find(String path) throws BaseServerException
+	{
+		CachedResource outcome = null;
+
+		this.lock.lock();
+		try
+		{
+			outcome = this.entries.get(path);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+
+		if (outcome == null && this.resourcesView.exists(path))
+		{
+			// Read outside of the lock, so a slow read does not block the hits. Two threads may read the same resource
+			outcome = new CachedResource(this.resourcesView.readAllBytes(path));
+
+			this.put(path, outcome);
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Serves a resource with its ETag, or 304 Not Modified without body if the client already has it
+	 *
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @param ifNoneMatch value of the "If-None-Match" header of the request, or null
+	 * @param cacheControl "Cache-Control" of the response
+	 * @return the response, or 404 Not Found if the resource does not exist
+	 * @throws BaseServerException if the resource cannot be read
+	 */
+	public ResponseEntity<byte[]> serve(String path, String ifNoneMatch, CacheControl cacheControl) throws BaseServerException
+	{
+		CachedResource cachedResource = this.find(path);
+
+		if (cachedResource == null)
+		{
+			return ResponseEntity.notFound().build();
+		}
+
+		if (cachedResource.matches(ifNoneMatch))
+		{
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+								 .eTag(cachedResource.getETag())
+								 .cacheControl(cacheControl)
+								 .build();
+		}
+
+		return ResponseEntity.ok()
+							 .eTag(cachedResource.getETag())
+							 .cacheControl(cacheControl)
+							 .contentType(MediaTypeFactory.getMediaType(path).orElse(MediaType.APPLICATION_OCTET_STREAM))
+							 .contentLength(cachedResource.getContent().length)
+							 .body(cachedResource.getContent());
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @param ifNoneMatch value of the "If-None-Match" header of the request, or null
+	 * @return the response, without "Cache-Control" (so the client revalidates with the ETag), or 404 Not Found if the
+	 * resource does not exist
+	 * @throws BaseServerException if the resource cannot be read
+	 */
+	public ResponseEntity<byte[]> serve(String path, String ifNoneMatch) throws BaseServerException
+	{
+		return this.serve(path, ifNoneMatch, CacheControl.empty());
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @param cachedResource resource to cache, unless it is bigger than the whole cache
+	 */
+	private void put(String path, CachedResource cachedResource)
+	{
+		long size = cachedResource.getContent().length;
+
+		if (size > this.maxBytes)
+		{
+			LOGGER.debug("The resource {} ({} bytes) does not fit in the cache", path, size);
+			return;
+		}
+
+		this.lock.lock();
+		try
+		{
+			CachedResource previous = this.entries.put(path, cachedResource);
+
+			this.cachedBytes += size - (previous != null ? previous.getContent().length : 0);
+
+			// The eldest entries are the least recently used
+			Iterator<CachedResource> iterator = this.entries.values().iterator();
+			while (this.cachedBytes > this.maxBytes && iterator.hasNext())
+			{
+				this.cachedBytes -= iterator.next().getContent().length;
+				iterator.remove();
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Empties the cache, for instance after the resources have changed
+	 */
+	public void clear()
+	{
+		this.lock.lock();
+		try
+		{
+			this.entries.clear();
+			this.cachedBytes = 0;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of cached resources
+	 */
+	public int size()
+	{
+		this.lock.lock();
+		try
+		{
+			return this.entries.size();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return total size in bytes of the cached content
+	 */
+	public long getCachedBytes()
+	{
+		this.lock.lock();
+		try
+		{
+			return this.cachedBytes;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Empties the cache and closes the source of the resources
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.clear();
+		this.resourcesView.close();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ResourceCache[" + this.size() + " resources, " + this.getCachedBytes() + " of " + this.maxBytes + " bytes]";
+	}
+
+	/**
+	 * Content of a resource with its strong ETag
+	 */
+	public static final class CachedResource
+	{
+		/** Attribute - Content, shared by every response, so it must not be modified */
+		private final byte[] content;
+
+		/** Attribute - Strong ETag, the quoted SHA-256 of the content */
+		private final String eTag;
+
+		/**
+		 * @param content content of the resource
+		 * @throws BaseServerException if the JVM does not support SHA-256
+		 */
+		private CachedResource(byte[] content) throws BaseServerException
+		{
+			this.content = content;
+			this.eTag 	 = "\"" + HexFormat.of().formatHex(sha256(content)) + "\"";
+		}
+
+		/**
+		 * @return content of the resource, which must not be modified
+		 */
+		public byte[] getContent()
+		{
+			return this.content;
+		}
+
+		/**
+		 * @return strong ETag of the resource, quoted
+		 */
+		public String getETag()
+		{
+			return this.eTag;
+		}
+
+		/**
+		 * If-None-Match uses the weak comparison, so "W/" is ignored
+		 *
+		 * @param ifNoneMatch value of the "If-None-Match" header ("*" or a list of ETags), or null
+		 * @return true if the client already has this content
+		 */
+		public boolean matches(String ifNoneMatch)
+		{
+			if (ifNoneMatch == null)
+			{
+				return false;
+			}
+
+			for (String candidate : ifNoneMatch.split(","))
+			{
+				String eTagCandidate = candidate.trim();
+
+				if (eTagCandidate.startsWith("W/"))
+				{
+					eTagCandidate = eTagCandidate.substring(2);
+				}
+
+				if ("*".equals(eTagCandidate) || this.eTag.equals(eTagCandidate))
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * @param content content
+		 * @return SHA-256 of the content
+		 * @throws BaseServerException if the JVM does not support SHA-256
+		 */
+		private static byte[] sha256(byte[] content) throws BaseServerException
+		{
+			try
+			{
+				return MessageDigest.getInstance("SHA-256").digest(content);
+			}
+			catch (NoSuchAlgorithmException noSuchAlgorithmException)
+			{
+				String errorString = "NoSuchAlgorithmException while calculating the ETag";
+
+				LOGGER.error(errorString, noSuchAlgorithmException);
+				throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, noSuchAlgorithmException);
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * A file of a resource folder, as returned by ResourcesHandler.entries. The content is not read until openStream is
+ * called, so the entries can be filtered before touching the disk or the JAR
+ */
+public final class ResourceEntry
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourceEntry.class);
+
+	/** Attribute - Path relative to the resource folder ("/" separated) */
+	private final String path;
+
+	/** Attribute - Size in bytes (negative if unknown) */
+	private final long size;
+
+	/** Attribute - Opens the content of the file */
+	private final StreamSupplier streamSupplier;
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @param size size in bytes (negative if unknown)
+	 * @param streamSupplier opens the content of the file
+	 */
+	ResourceEntry(String path, long size, StreamSupplier streamSupplier)
+	{
+		this.path 			= path;
+		this.size 			= size;
+		this.streamSupplier = streamSupplier;
+	}
+
+	/**
+	 * @return path relative to the resource folder ("/" separated)
+	 */
+	public String getPath()
+	{
+		return this.path;
+	}
+
+	/**
+	 * @return size in bytes (negative if unknown)
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return a new input stream with the content of the file. The caller must close it
+	 * @throws BaseServerException with an occurred exception
+	 */
+	public InputStream openStream() throws BaseServerException
+	{
+		try
+		{
+			return this.streamSupplier.open();
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while opening the resource " + this.path;
+
+			LOGGER.error(errorString, ioException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.path + " (" + this.size + " bytes)";
+	}
+
+	/**
+	 * Opens the content of a file
+	 */
+	@FunctionalInterface
+	interface StreamSupplier
+	{
+		/**
+		 * @return a new input stream with the content of the file
+		 * @throws IOException with an occurred exception
+		 */
+		InputStream open() throws IOException;
+	}
+}
@@ -1,10 +1,21 @@
 package es.iesjandula.base.base_server.resources_handler;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,21 +25,49 @@ import es.iesjandula.base.base_server.utils.BaseServerException;
 
 /**
  * @author Francisco Manuel Benítez Chico
+ * 
+ * Copies a resource folder to a destination directory. Directories are created while the source is traversed,
+ * and the files are then copied with NIO (Files.copy) on a bounded pool of threads.
+ * 
+ * A manifest (see ResourcesManifest) is kept in the destination directory, so later copies only copy the added or
+ * changed files and delete the removed ones
  */
 public abstract class ResourcesHandler
 {
 	/** Logger of the class */
 	private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesHandler.class);
 
+	/** Prefix of the manifest file name, hidden so it is not mistaken for a resource */
+	private static final String MANIFEST_PREFIX = ".";
+
+	/** Suffix of the manifest file name */
+	private static final String MANIFEST_SUFFIX = ".manifest";
+
+	/** Default number of parallel file copies */
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
 	/** Attribute - Resource Folder URL */
 	private final URL resourceFolderUrl;
 
+	/** Attribute - Maximum number of parallel file copies */
+	private final int parallelism;
+
 	/**
 	 * @param resourceFolderUrl resource folder URL
 	 */
 	protected ResourcesHandler(URL resourceFolderUrl)
+	{
+		this(resourceFolderUrl, DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * @param resourceFolderUrl resource folder URL
+	 * @param parallelism maximum number of parallel file copies (1 copies them on the calling thread)
+	 */
+	protected ResourcesHandler(URL resourceFolderUrl, int parallelism)
 	{
 		this.resourceFolderUrl = resourceFolderUrl;
+		this.parallelism 	   = Math.max(1, parallelism);
 	}
 
 	/**
@@ -45,6 +84,25 @@ public abstract class ResourcesHandler
 	 */
 	public abstract void copyToDirectory(File paramFile) throws BaseServerException;
 
+	/**
+	 * Opens a read-only view of the resource folder, without copying it. The caller must close the view
+	 * 
+	 * @param extractionDir directory where the resources are extracted the first time they are needed as files
+	 * (ResourcesView.getFile), or null if they are only read
+	 * @return the view of the resource folder
+	 * @throws BaseServerException with an occurred exception
+	 */
+	public abstract ResourcesView openView(File extractionDir) throws BaseServerException;
+
+	/**
+	 * Streams the files of the resource folder without copying them, so they can be filtered, transformed or piped to
+	 * other sinks. The stream should be closed after use (try-with-resources)
+	 * 
+	 * @return the files of the resource folder
+	 * @throws BaseServerException with an occurred exception
+	 */
+	public abstract Stream<ResourceEntry> entries() throws BaseServerException;
+
 	/**
 	 * @param destDir destination directory
 	 * @param subfolderFile subfolder file
@@ -55,7 +113,7 @@ public abstract class ResourcesHandler
 		boolean directoryCreated = this.createDirectoryIfNotExists(directory);
 		if (directoryCreated)
 		{
-			LOGGER.info("Directory created [{}]", subfolderFile);
+			LOGGER.debug("Directory created [{}]", subfolderFile);
 		}
 	}
 
@@ -79,7 +137,7 @@ public abstract class ResourcesHandler
 		String subfolders = subfolderFile.substring(0, latestFileSeparator + 1);
 		String fileName = subfolderFile.substring(latestFileSeparator + 1);
 		
-		LOGGER.info("Info about the file that it is checking: [subfolders: {}, fileName: {}]", subfolders, fileName);
+		LOGGER.debug("Info about the file that it is checking: [subfolders: {}, fileName: {}]", subfolders, fileName);
 		
 		return getFinalFilePath(subfolders, fileName);
 	}
@@ -97,22 +155,16 @@ public abstract class ResourcesHandler
 
 	protected void createFile(File destDir, InputStream inputStream, String filePathWithoutExtraInfo) throws BaseServerException
 	{
-		this.createDirectoryIfNotExists(destDir);
+		Path file = new File(destDir, filePathWithoutExtraInfo).toPath();
 		
-		File file = new File(destDir, filePathWithoutExtraInfo);
-		LOGGER.info("Created file [{}]", filePathWithoutExtraInfo);
-		
-		FileOutputStream fileOutputStream = null;
 		try
 		{
-			fileOutputStream = new FileOutputStream(file);
-			byte[] bytes = new byte[1024];
-			int read = inputStream.read(bytes);
-			while (read != -1)
-			{
-				fileOutputStream.write(bytes, 0, read);
-				read = inputStream.read(bytes);
-			}
+			// The parent may not exist yet if the directory entries come after the file (or do not exist)
+			Files.createDirectories(file.getParent());
+			
+			Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+			
+			LOGGER.debug("Created file [{}]", filePathWithoutExtraInfo);
 		}
 		catch (IOException ioException)
 		{
@@ -121,28 +173,267 @@ public abstract class ResourcesHandler
 			LOGGER.error(errorString, ioException);
 			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
 		}
-		finally
+	}
+
+	/**
+	 * Copies a file of the file system. Files.copy delegates to the operating system (copy_file_range, sendfile...),
+	 * so the content does not go through the Java heap
+	 * 
+	 * @param sourceFile source file
+	 * @param destFile destination file
+	 * @throws BaseServerException with an occurred exception
+	 */
+	protected void copyFile(Path sourceFile, Path destFile) throws BaseServerException
+	{
+		try
+		{
+			Files.createDirectories(destFile.getParent());
+			
+			Files.copy(sourceFile, destFile, StandardCopyOption.REPLACE_EXISTING);
+			
+			LOGGER.debug("Created file [{}]", destFile);
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while copying the file " + sourceFile + " to " + destFile;
+			
+			LOGGER.error(errorString, ioException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+	}
+
+	/**
+	 * Copies the source files that are not in the manifest of the previous copy (or whose size or stamp changed, or
+	 * whose destination file is missing), deletes the files of the previous copy that are no longer in the source and
+	 * writes the new manifest. The manifest is only written when everything went fine, so a failed copy is repeated
+	 * 
+	 * @param destDir destination directory
+	 * @param sourceFiles files of the resource folder
+	 * @throws BaseServerException with an occurred exception
+	 */
+	protected void synchronize(Path destDir, List<SourceFile> sourceFiles) throws BaseServerException
+	{
+		Path manifestFile                  = destDir.resolve(this.getManifestFileName());
+		ResourcesManifest previousManifest = ResourcesManifest.read(manifestFile);
+		ResourcesManifest currentManifest  = new ResourcesManifest();
+		List<FileCopy> copies              = new ArrayList<FileCopy>();
+		
+		for (SourceFile sourceFile : sourceFiles)
+		{
+			currentManifest.put(sourceFile.getPath(), sourceFile.getSize(), sourceFile.getStamp());
+			
+			if (!this.isUnchanged(destDir, previousManifest, sourceFile))
+			{
+				copies.add(sourceFile.getCopy());
+			}
+		}
+		
+		this.runCopies(copies);
+		
+		int deleted = this.deleteRemovedFiles(destDir, previousManifest.removedIn(currentManifest));
+		
+		try
 		{
-			this.closeStream(fileOutputStream);
+			currentManifest.write(manifestFile);
 		}
+		catch (IOException ioException)
+		{
+			// The resources are already copied, the next copy will just copy them again
+			LOGGER.warn("IOException while writing the resources manifest {}", manifestFile, ioException);
+		}
+		
+		LOGGER.info("Resources from {}: {} copied, {} unchanged, {} deleted", this.resourceFolderUrl, copies.size(),
+					sourceFiles.size() - copies.size(), deleted);
 	}
 
-	private void closeStream(FileOutputStream fileOutputStream) throws BaseServerException
+	/**
+	 * @return name of the manifest file, from the last segment of the resource folder so that several folders can be
+	 * copied to the same destination directory
+	 */
+	private String getManifestFileName()
+	{
+		String path = this.resourceFolderUrl.getPath();
+		
+		while (path.endsWith("/"))
+		{
+			path = path.substring(0, path.length() - 1);
+		}
+		
+		return MANIFEST_PREFIX + path.substring(path.lastIndexOf('/') + 1).replace('!', '_') + MANIFEST_SUFFIX;
+	}
+
+	/**
+	 * @param destDir destination directory
+	 * @param previousManifest manifest of the previous copy
+	 * @param sourceFile source file
+	 * @return true if the file was copied by the previous copy and its destination file is still there
+	 */
+	private boolean isUnchanged(Path destDir, ResourcesManifest previousManifest, SourceFile sourceFile)
+	{
+		boolean outcome = sourceFile.getSize() >= 0 &&
+						  previousManifest.contains(sourceFile.getPath(), sourceFile.getSize(), sourceFile.getStamp());
+		
+		if (outcome)
+		{
+			try
+			{
+				outcome = Files.size(destDir.resolve(sourceFile.getPath())) == sourceFile.getSize();
+			}
+			catch (IOException ioException)
+			{
+				outcome = false;
+			}
+		}
+		
+		return outcome;
+	}
+
+	/**
+	 * Deletes the files of the previous copy that are no longer in the source, and their directories if they are left
+	 * empty. Paths outside of the destination directory are ignored
+	 * 
+	 * @param destDir destination directory
+	 * @param removedPaths paths of the removed files
+	 * @return number of deleted files
+	 */
+	private int deleteRemovedFiles(Path destDir, Set<String> removedPaths)
 	{
-		if (fileOutputStream != null)
+		Path root 	= destDir.toAbsolutePath().normalize();
+		int outcome = 0;
+		
+		for (String removedPath : removedPaths)
 		{
+			Path file = root.resolve(removedPath).normalize();
+			
+			if (!file.startsWith(root) || file.equals(root))
+			{
+				LOGGER.warn("Ignoring the path {} of the resources manifest, it is outside of {}", removedPath, root);
+				continue;
+			}
+			
 			try
 			{
-				fileOutputStream.close();
+				if (Files.deleteIfExists(file))
+				{
+					outcome++;
+					
+					LOGGER.debug("Deleted file [{}]", file);
+				}
+				
+				this.deleteEmptyDirectories(root, file.getParent());
 			}
 			catch (IOException ioException)
 			{
-				String errorString = "IOException while closing the file output stream";
+				LOGGER.warn("IOException while deleting the removed resource {}", file, ioException);
+			}
+		}
+		
+		return outcome;
+	}
+
+	/**
+	 * @param root destination directory, never deleted
+	 * @param directory directory to delete, and then its parents, while they are empty
+	 * @throws IOException with an occurred exception
+	 */
+	private void deleteEmptyDirectories(Path root, Path directory) throws IOException
+	{
+		Path current = directory;
+		
+		try
+		{
+			while (current != null && current.startsWith(root) && !current.equals(root) && Files.isDirectory(current))
+			{
+				Files.delete(current);
 				
-				LOGGER.error(errorString, ioException);
-				throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+				current = current.getParent();
+			}
+		}
+		catch (DirectoryNotEmptyException directoryNotEmptyException)
+		{
+			// Still in use by other resources
+		}
+	}
+
+	/**
+	 * Runs the file copies on a pool of at most "parallelism" threads and waits for all of them
+	 * 
+	 * @param copies file copies
+	 * @throws BaseServerException with the first exception of a copy
+	 */
+	protected void runCopies(List<FileCopy> copies) throws BaseServerException
+	{
+		long start 	= System.nanoTime();
+		int threads = Math.min(this.parallelism, copies.size());
+		
+		if (threads <= 1)
+		{
+			for (FileCopy copy : copies)
+			{
+				copy.copy();
+			}
+		}
+		else
+		{
+			try (ExecutorService executorService = Executors.newFixedThreadPool(threads))
+			{
+				List<Future<Void>> futures = new ArrayList<Future<Void>>(copies.size());
+				
+				for (FileCopy copy : copies)
+				{
+					futures.add(executorService.submit(() ->
+					{
+						copy.copy();
+						return null;
+					}));
+				}
+				
+				this.waitForCopies(executorService, futures);
+			}
+		}
+		
+		LOGGER.debug("Copied {} files from {} in {} ms", copies.size(), this.resourceFolderUrl, (System.nanoTime() - start) / 1000000L);
+	}
+
+	/**
+	 * @param executorService pool of the copies, cancelled at the first error
+	 * @param futures pending copies
+	 * @throws BaseServerException with the first exception of a copy
+	 */
+	private void waitForCopies(ExecutorService executorService, List<Future<Void>> futures) throws BaseServerException
+	{
+		try
+		{
+			for (Future<Void> future : futures)
+			{
+				future.get();
 			}
 		}
+		catch (ExecutionException executionException)
+		{
+			executorService.shutdownNow();
+			
+			if (executionException.getCause() instanceof BaseServerException baseServerException)
+			{
+				throw baseServerException;
+			}
+			
+			Exception exception = executionException.getCause() instanceof Exception cause ? cause : executionException;
+			String errorString 	= "Exception while copying the resources";
+			
+			LOGGER.error(errorString, exception);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, exception);
+		}
+		catch (InterruptedException interruptedException)
+		{
+			executorService.shutdownNow();
+			Thread.currentThread().interrupt();
+			
+			String errorString = "Interrupted while copying the resources";
+			
+			LOGGER.error(errorString, interruptedException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, interruptedException);
+		}
 	}
 
 	protected void closeStream(InputStream inputStream) throws BaseServerException
@@ -162,4 +453,80 @@ public abstract class ResourcesHandler
 			}
 		}
 	}
+
+	/**
+	 * A file of the resource folder, as recorded in the manifest, with the copy that brings it to the destination
+	 */
+	protected static final class SourceFile
+	{
+		/** Attribute - Path relative to the resource folder ("/" separated) */
+		private final String path;
+
+		/** Attribute - Size in bytes */
+		private final long size;
+
+		/** Attribute - CRC of the jar entry or modification time of the file */
+		private final long stamp;
+
+		/** Attribute - Copy of the file */
+		private final FileCopy copy;
+
+		/**
+		 * @param path path relative to the resource folder ("/" separated)
+		 * @param size size in bytes (negative if unknown, so the file is always copied)
+		 * @param stamp CRC of the jar entry or modification time of the file
+		 * @param copy copy of the file
+		 */
+		protected SourceFile(String path, long size, long stamp, FileCopy copy)
+		{
+			this.path  = path;
+			this.size  = size;
+			this.stamp = stamp;
+			this.copy  = copy;
+		}
+
+		/**
+		 * @return path relative to the resource folder ("/" separated)
+		 */
+		public String getPath()
+		{
+			return this.path;
+		}
+
+		/**
+		 * @return size in bytes
+		 */
+		public long getSize()
+		{
+			return this.size;
+		}
+
+		/**
+		 * @return CRC of the jar entry or modification time of the file
+		 */
+		public long getStamp()
+		{
+			return this.stamp;
+		}
+
+		/**
+		 * @return copy of the file
+		 */
+		public FileCopy getCopy()
+		{
+			return this.copy;
+		}
+	}
+
+	/**
+	 * A file copy that can run on any thread
+	 */
+	@FunctionalInterface
+	protected interface FileCopy
+	{
+		/**
+		 * @throws BaseServerException with an occurred exception
+		 */
+		void copy() throws BaseServerException;
+	}
 }
@@ -0,0 +1,130 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Creates the ResourcesHandler of a resource folder from the protocol of its URL: "file:" when the resources are on
+ * disk (IDE, exploded runs), and "jar:" or "nested:" (Spring Boot fat jars) when they are inside a JAR
+ */
+public final class ResourcesHandlerFactory
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesHandlerFactory.class);
+
+	/** Protocol of the resources on disk */
+	private static final String FILE_PROTOCOL = "file";
+
+	/** Protocol of the resources inside a JAR */
+	private static final String JAR_PROTOCOL = "jar";
+
+	/** Protocol of the Spring Boot nested JARs */
+	private static final String NESTED_PROTOCOL = "nested";
+
+	/**
+	 * Not instantiable
+	 */
+	private ResourcesHandlerFactory()
+	{
+		// Empty
+	}
+
+	/**
+	 * @param resourceFolder resource folder in the classpath (for example "impresoras/")
+	 * @return the handler of the folder
+	 * @throws BaseServerException if the folder is not in the classpath or its protocol is not supported
+	 */
+	public static ResourcesHandler fromClasspath(String resourceFolder) throws BaseServerException
+	{
+		String folder = resourceFolder.endsWith("/") ? resourceFolder : resourceFolder + "/";
+		URL outcome   = Thread.currentThread().getContextClassLoader().getResource(folder);
+
+		if (outcome == null)
+		{
+			String errorString = "The resource folder " + folder + " is not in the classpath";
+
+			LOGGER.error(errorString);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
+		}
+
+		return create(outcome);
+	}
+
+	/**
+	 * @param resourceFolderUrl resource folder URL
+	 * @return the handler of the folder
+	 * @throws BaseServerException if the protocol of the URL is not supported
+	 */
+	public static ResourcesHandler create(URL resourceFolderUrl) throws BaseServerException
+	{
+		return create(resourceFolderUrl, ResourcesHandler.DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * @param resourceFolderUrl resource folder URL
+	 * @param parallelism maximum number of parallel file copies
+	 * @return the handler of the folder
+	 * @throws BaseServerException if the protocol of the URL is not supported
+	 */
+	public static ResourcesHandler create(URL resourceFolderUrl, int parallelism) throws BaseServerException
+	{
+		String protocol = resourceFolderUrl.getProtocol();
+
+		if (FILE_PROTOCOL.equals(protocol))
+		{
+			return new ResourcesHandlerFile(resourceFolderUrl, parallelism);
+		}
+
+		if (JAR_PROTOCOL.equals(protocol))
+		{
+			return new ResourcesHandlerJar(resourceFolderUrl, parallelism);
+		}
+
+		if (NESTED_PROTOCOL.equals(protocol))
+		{
+			// A nested JAR as a whole (nested:<fat jar>/!BOOT-INF/lib/<jar>), handled as the root folder of the JAR
+			return new ResourcesHandlerJar(toJarUrl(resourceFolderUrl), parallelism);
+		}
+
+		String errorString = "Unsupported protocol of the resource folder " + resourceFolderUrl;
+
+		LOGGER.error(errorString);
+		throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
+	}
+
+	/**
+	 * @param nestedUrl URL of a nested JAR
+	 * @return the URL of the root folder of the nested JAR
+	 * @throws BaseServerException if the URL cannot be built
+	 */
+	private static URL toJarUrl(URL nestedUrl) throws BaseServerException
+	{
+		try
+		{
+			return URI.create(JAR_PROTOCOL + ":" + nestedUrl + "!/").toURL();
+		}
+		catch (MalformedURLException malformedURLException)
+		{
+			String errorString = "MalformedURLException while building the JAR URL of " + nestedUrl;
+
+			LOGGER.error(errorString, malformedURLException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, malformedURLException);
+		}
+		catch (IllegalArgumentException illegalArgumentException)
+		{
+			String errorString = "IllegalArgumentException while building the JAR URI of " + nestedUrl;
+
+			LOGGER.error(errorString, illegalArgumentException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, illegalArgumentException);
+		}
+	}
+}
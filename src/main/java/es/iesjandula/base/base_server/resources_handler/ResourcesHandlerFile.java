@@ -1,9 +1,18 @@
 package es.iesjandula.base.base_server.resources_handler;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,59 +36,140 @@ public final class ResourcesHandlerFile extends ResourcesHandler
 		super(resourceFolderUrl);
 	}
 
+	/**
+	 * @param resourceFolderUrl resource folder URL
+	 * @param parallelism maximum number of parallel file copies
+	 */
+	public ResourcesHandlerFile(URL resourceFolderUrl, int parallelism)
+	{
+		super(resourceFolderUrl, parallelism);
+	}
+
 	/**
 	 * @param destDir destination directory
 	 */
 	public void copyToDirectory(File destDir) throws BaseServerException
 	{
-		File srcDir = new File(getResourceFolderUrl().getFile());
-		String absolutePathSrcDir = srcDir.getAbsolutePath();
-		this.copyContentToWorkingDirectory(destDir, srcDir, absolutePathSrcDir);
+		Path srcDir   = this.getSourceDirectory();
+		Path destPath = destDir.toPath();
+		
+		if (!Files.isDirectory(srcDir))
+		{
+			LOGGER.warn("The resource folder {} does not exist, nothing to copy", srcDir);
+			return;
+		}
+		
+		List<SourceFile> sourceFiles = new ArrayList<SourceFile>();
+		
+		try
+		{
+			// The directories are created while walking the tree, and the files are copied afterwards in parallel
+			Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes basicFileAttributes) throws IOException
+				{
+					Path destDirectory = destPath.resolve(srcDir.relativize(directory).toString());
+					
+					if (!Files.isDirectory(destDirectory))
+					{
+						Files.createDirectories(destDirectory);
+						
+						LOGGER.debug("Directory created [{}]", destDirectory);
+					}
+					
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes basicFileAttributes)
+				{
+					Path relativePath = srcDir.relativize(file);
+					Path destFile 	  = destPath.resolve(relativePath.toString());
+					
+					// The modification time is the stamp, it changes whenever the file is rebuilt
+					sourceFiles.add(new SourceFile(relativePath.toString().replace(File.separatorChar, '/'),
+												   basicFileAttributes.size(),
+												   basicFileAttributes.lastModifiedTime().toMillis(),
+												   () -> ResourcesHandlerFile.this.copyFile(file, destFile)));
+					
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while walking the directory " + srcDir;
+			LOGGER.error(errorString, ioException);
+			
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+		
+		this.synchronize(destPath, sourceFiles);
+	}
+
+	@Override
+	public Stream<ResourceEntry> entries() throws BaseServerException
+	{
+		Path srcDir = this.getSourceDirectory();
+		
+		if (!Files.isDirectory(srcDir))
+		{
+			LOGGER.warn("The resource folder {} does not exist, no resources", srcDir);
+			return Stream.empty();
+		}
+		
+		try
+		{
+			return Files.walk(srcDir)
+						.filter(Files::isRegularFile)
+						.map(file -> new ResourceEntry(srcDir.relativize(file).toString().replace(File.separatorChar, '/'),
+													   file.toFile().length(),
+													   () -> Files.newInputStream(file)));
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while walking the directory " + srcDir;
+			LOGGER.error(errorString, ioException);
+			
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
 	}
 
-	private void copyContentToWorkingDirectory(File destDir, File srcDir, String absolutePathSrcDir) throws BaseServerException
+	/**
+	 * The view reads the files of the folder in place, so nothing is ever extracted
+	 * 
+	 * @param extractionDir not used, the resources are already files
+	 */
+	@Override
+	public ResourcesView openView(File extractionDir) throws BaseServerException
 	{
-		File[] filesList = srcDir.listFiles();
-		if (filesList != null)
+		Path srcDir = this.getSourceDirectory().toAbsolutePath().normalize();
+		
+		if (!Files.isDirectory(srcDir))
 		{
-			for (File file : filesList)
-			{
-				String subfolderFile = file.getAbsolutePath().replace(absolutePathSrcDir, "");
-				this.createFileOrDirectory(destDir, absolutePathSrcDir, file, subfolderFile);
-			}
+			String errorString = "The resource folder " + srcDir + " does not exist";
+			
+			LOGGER.error(errorString);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
 		}
+		
+		return new ResourcesView(srcDir, List.of(), null);
 	}
 
-	private void createFileOrDirectory(File destDir, String absolutePathSrcDir, File foundFileDir, String subfolderFile) throws BaseServerException
+	/**
+	 * @return the resource folder as a path
+	 */
+	private Path getSourceDirectory()
 	{
-		if (foundFileDir.isDirectory())
+		try
 		{
-			this.createDirectoryIfNotExists(destDir, subfolderFile);
-			this.copyContentToWorkingDirectory(destDir, foundFileDir, absolutePathSrcDir);
+			// The URI decodes the escaped characters of the URL (spaces, accents...)
+			return Paths.get(getResourceFolderUrl().toURI());
 		}
-		else
+		catch (URISyntaxException | IllegalArgumentException exception)
 		{
-			String filePathWithoutExtraInfo = getFileSubPathWithoutExtraInfoFromFullPath(subfolderFile);
-			if (filePathWithoutExtraInfo != null)
-			{
-				FileInputStream fileInputStream = null;
-				try
-				{
-					fileInputStream = new FileInputStream(foundFileDir);
-					this.createFile(destDir, fileInputStream, filePathWithoutExtraInfo);
-				}
-				catch (IOException ioException)
-				{
-					String errorString = "IOException while getting an input stream from the file " + foundFileDir.getAbsolutePath();
-					LOGGER.error(errorString, ioException);
-					
-					throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
-				}
-				finally
-				{
-					this.closeStream(fileInputStream);
-				}
-			}
+			return new File(getResourceFolderUrl().getFile()).toPath();
 		}
 	}
 
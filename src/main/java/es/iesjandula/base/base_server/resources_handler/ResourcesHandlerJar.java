@@ -4,11 +4,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.Enumeration;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,12 +30,27 @@ public class ResourcesHandlerJar extends ResourcesHandler
 {
 	/** Logger of the class */
 	private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesHandlerJar.class);
+
+	/** Protocol of the resource folder URL */
+	private static final String JAR_PROTOCOL = "jar:";
+
+	/** Protocol of the Spring Boot nested JAR URLs */
+	private static final String NESTED_PROTOCOL = "nested:";
 	  
 	  public ResourcesHandlerJar(URL resourceFolderUrl)
 	  {
 	    super(resourceFolderUrl);
 	  }
 	  
+	  /**
+	   * @param resourceFolderUrl resource folder URL
+	   * @param parallelism maximum number of parallel file copies
+	   */
+	  public ResourcesHandlerJar(URL resourceFolderUrl, int parallelism)
+	  {
+	    super(resourceFolderUrl, parallelism);
+	  }
+	  
 	  public void copyToDirectory(File destDir) throws BaseServerException
 	  {
 	    try
@@ -48,16 +70,55 @@ public class ResourcesHandlerJar extends ResourcesHandler
 	  private void readContent(File destDir, JarURLConnection jarURLConnection) throws BaseServerException
 	  {
 	    JarFile jarFile = getJarFile(jarURLConnection);
-	    Enumeration<JarEntry> entryEnumeration = jarFile.entries();
-	    while (entryEnumeration.hasMoreElements())
+	    List<SourceFile> sourceFiles = new ArrayList<SourceFile>();
+	    
+	    String prefix = getEntryPrefix(jarURLConnection);
+	    
+	    // Only the entries of the folder are visited, through the sorted index of the JAR. The directories are created
+	    // in order, and the files are decompressed afterwards in parallel
+	    for (JarEntry entry : JarEntryIndex.of(jarFile).getEntries(prefix))
 	    {
-	      JarEntry entry = entryEnumeration.nextElement();
-	      if (entry.getName().startsWith(jarURLConnection.getEntryName()))
+	      String subfolderFile = entry.getName().substring(prefix.length());
+	      if (!subfolderFile.isEmpty())
 	      {
-	        String subfolderFile = entry.getName().replace(jarURLConnection.getEntryName(), "");
-	        createFileOrDirectory(destDir, jarFile, entry, subfolderFile);
+	        createFileOrDirectory(destDir, jarFile, entry, subfolderFile, sourceFiles);
 	      } 
 	    } 
+	    
+	    this.synchronize(destDir.toPath(), sourceFiles);
+	  }
+	  
+	  @Override
+	  public Stream<ResourceEntry> entries() throws BaseServerException
+	  {
+	    try
+	    {
+	      JarURLConnection jarURLConnection = (JarURLConnection) getResourceFolderUrl().openConnection();
+	      JarFile jarFile = getJarFile(jarURLConnection);
+	      String prefix = getEntryPrefix(jarURLConnection);
+	      
+	      // Sorted by path, and only the entries of the folder, through the index of the JAR
+	      return JarEntryIndex.of(jarFile).getEntries(prefix).stream()
+	                          .filter(entry -> !entry.isDirectory())
+	                          .map(entry -> new ResourceEntry(entry.getName().substring(prefix.length()), entry.getSize(),
+	                                                          () -> jarFile.getInputStream(entry)));
+	    }
+	    catch (IOException ioException)
+	    {
+	      String errorString = "IOException while opening the connection";
+	      LOGGER.error(errorString, ioException);
+	      
+	      throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+	    }
+	  }
+	  
+	  /**
+	   * @param jarURLConnection connection to the resource folder
+	   * @return the name of the folder inside the JAR, as the prefix of its entries ("" for the root of the JAR)
+	   */
+	  private static String getEntryPrefix(JarURLConnection jarURLConnection)
+	  {
+	    return jarURLConnection.getEntryName() != null ? jarURLConnection.getEntryName() : "";
 	  }
 	  
 	  private JarFile getJarFile(JarURLConnection urlConnection) throws BaseServerException
@@ -78,7 +139,8 @@ public class ResourcesHandlerJar extends ResourcesHandler
 	    return outcome;
 	  }
 	  
-	  private void createFileOrDirectory(File destDir, JarFile jarFile, JarEntry jarEntry, String subfolderFile) throws BaseServerException {
+	  private void createFileOrDirectory(File destDir, JarFile jarFile, JarEntry jarEntry, String subfolderFile, List<SourceFile> sourceFiles)
+	  {
 	    if (jarEntry.isDirectory())
 	    {
 	      this.createDirectoryIfNotExists(destDir, subfolderFile);
@@ -88,25 +150,113 @@ public class ResourcesHandlerJar extends ResourcesHandler
 	      String fileNameWithoutExtraInfo = this.getFileSubPathWithoutExtraInfoFromFullPath(subfolderFile);
 	      if (fileNameWithoutExtraInfo != null)
 	      {
-	        InputStream inputStream = null;
-	        try
-	        {
-	          inputStream = jarFile.getInputStream(jarEntry);
-	          this.createFile(destDir, inputStream, fileNameWithoutExtraInfo);
-	        } 
-	        catch (IOException ioException)
+	        // The CRC of the entry is the stamp, it is already in the central directory of the JAR
+	        sourceFiles.add(new SourceFile(fileNameWithoutExtraInfo, jarEntry.getSize(), jarEntry.getCrc(),
+	                                       () -> this.copyEntry(destDir, jarFile, jarEntry, fileNameWithoutExtraInfo)));
+	      } 
+	    } 
+	  }
+	  
+	  /**
+	   * JarFile is thread safe, so each entry can be decompressed on a different thread
+	   * 
+	   * @param destDir destination directory
+	   * @param jarFile JAR file
+	   * @param jarEntry entry to copy
+	   * @param fileNameWithoutExtraInfo destination path of the entry
+	   * @throws BaseServerException with an occurred exception
+	   */
+	  private void copyEntry(File destDir, JarFile jarFile, JarEntry jarEntry, String fileNameWithoutExtraInfo) throws BaseServerException
+	  {
+	    InputStream inputStream = null;
+	    try
+	    {
+	      inputStream = jarFile.getInputStream(jarEntry);
+	      this.createFile(destDir, inputStream, fileNameWithoutExtraInfo);
+	    } 
+	    catch (IOException ioException)
+	    {
+	      String errorString = "IOException while getting an input stream from the file " + jarEntry.getName();
+	      
+	      LOGGER.error(errorString, ioException);
+	      throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+	    }
+	    finally
+	    {
+	      this.closeStream(inputStream);
+	    } 
+	  }
+	  
+	  /**
+	   * The view is backed by the zip file system of the JAR. In a Spring Boot fat jar ("jar:nested:") the resource
+	   * folder is either under BOOT-INF/classes of the fat jar, or inside a library JAR, whose zip file system is opened
+	   * on top of the fat jar one
+	   */
+	  @Override
+	  public ResourcesView openView(File extractionDir) throws BaseServerException
+	  {
+	    // jar:<jar URL>!/<folder>, where the jar URL is file:<path> or nested:<path>/!<entry>
+	    String url = getResourceFolderUrl().toString();
+	    int separator = url.lastIndexOf("!/");
+	    String jarUrl = url.substring(JAR_PROTOCOL.length(), separator);
+	    String folder = url.substring(separator + 2);
+	    List<FileSystem> fileSystems = new ArrayList<FileSystem>();
+	    
+	    try
+	    {
+	      Path root;
+	      if (jarUrl.startsWith(NESTED_PROTOCOL))
+	      {
+	        int nestedSeparator = jarUrl.indexOf("/!");
+	        String nestedEntry = jarUrl.substring(nestedSeparator + 2);
+	        
+	        fileSystems.add(FileSystems.newFileSystem(Paths.get(URI.create("file:" + jarUrl.substring(NESTED_PROTOCOL.length(), nestedSeparator)))));
+	        
+	        if (nestedEntry.endsWith("/"))
 	        {
-	          String errorString = "IOException while getting an input stream from the file " + jarEntry.getName();
-	          
-	          LOGGER.error(errorString, ioException);
-	          throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+	          root = fileSystems.get(0).getPath("/" + nestedEntry + folder);
 	        }
-	        finally
+	        else
 	        {
-	          this.closeStream(inputStream);
-	        } 
-	      } 
-	    } 
+	          fileSystems.add(FileSystems.newFileSystem(fileSystems.get(0).getPath("/" + nestedEntry)));
+	          root = fileSystems.get(1).getPath("/" + folder);
+	        }
+	      }
+	      else
+	      {
+	        fileSystems.add(FileSystems.newFileSystem(Paths.get(URI.create(jarUrl))));
+	        root = fileSystems.get(0).getPath("/" + folder);
+	      }
+	      
+	      return new ResourcesView(root.normalize(), fileSystems, extractionDir != null ? extractionDir.toPath() : null);
+	    }
+	    catch (IOException | RuntimeException exception)
+	    {
+	      this.closeFileSystems(fileSystems);
+	      
+	      String errorString = "Exception while opening the zip file system of " + url;
+	      
+	      LOGGER.error(errorString, exception);
+	      throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, exception);
+	    }
+	  }
+	  
+	  /**
+	   * @param fileSystems file systems opened before an error, closed in reverse order
+	   */
+	  private void closeFileSystems(List<FileSystem> fileSystems)
+	  {
+	    for (int i = fileSystems.size() - 1; i >= 0; i--)
+	    {
+	      try
+	      {
+	        fileSystems.get(i).close();
+	      }
+	      catch (IOException ioException)
+	      {
+	        LOGGER.warn("IOException while closing the zip file system {}", fileSystems.get(i), ioException);
+	      }
+	    }
 	  }
 	  
 	  protected String getSeparator()
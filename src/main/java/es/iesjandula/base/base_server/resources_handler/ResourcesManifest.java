@@ -0,0 +1,173 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Manifest of the resources copied to a destination directory: relative path, size and stamp (the CRC of the jar entry
+ * or the modification time of the file) of each file. It is written next to the resources after each copy, so that the
+ * next copy only has to copy the added or changed files and delete the removed ones
+ */
+public final class ResourcesManifest
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesManifest.class);
+
+	/** First line of the manifest, with its format version */
+	private static final String HEADER = "# BaseServer resources manifest v1";
+
+	/** Separator of the fields of each line: size, stamp and path (last, so it can contain any character) */
+	private static final String SEPARATOR = "\t";
+
+	/** Attribute - Files by relative path ("/" separated) */
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Creates an empty manifest
+	 */
+	public ResourcesManifest()
+	{
+		this.entries = new TreeMap<String, Entry>();
+	}
+
+	/**
+	 * @param manifestFile manifest file
+	 * @return the manifest read from the file, or an empty one if it does not exist or cannot be read
+	 */
+	public static ResourcesManifest read(Path manifestFile)
+	{
+		ResourcesManifest outcome = new ResourcesManifest();
+
+		if (Files.isRegularFile(manifestFile))
+		{
+			try
+			{
+				List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+
+				if (lines.isEmpty() || !HEADER.equals(lines.get(0)))
+				{
+					LOGGER.warn("Unknown format of the resources manifest {}, all the resources will be copied", manifestFile);
+					return outcome;
+				}
+
+				for (String line : lines.subList(1, lines.size()))
+				{
+					String[] fields = line.split(SEPARATOR, 3);
+
+					outcome.put(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+				}
+			}
+			catch (IOException | RuntimeException exception)
+			{
+				LOGGER.warn("The resources manifest {} cannot be read, all the resources will be copied", manifestFile, exception);
+				return new ResourcesManifest();
+			}
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Writes the manifest to a temporary file and then replaces the previous one, so it is never left half written
+	 *
+	 * @param manifestFile manifest file
+	 * @throws IOException with an occurred exception
+	 */
+	public void write(Path manifestFile) throws IOException
+	{
+		Path temporaryFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+
+		try (BufferedWriter bufferedWriter = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8))
+		{
+			bufferedWriter.write(HEADER);
+			bufferedWriter.newLine();
+
+			for (Map.Entry<String, Entry> entry : this.entries.entrySet())
+			{
+				bufferedWriter.write(entry.getValue().size + SEPARATOR + entry.getValue().stamp + SEPARATOR + entry.getKey());
+				bufferedWriter.newLine();
+			}
+		}
+
+		Files.move(temporaryFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param path relative path ("/" separated)
+	 * @param size size in bytes
+	 * @param stamp CRC of the jar entry or modification time of the file
+	 */
+	public void put(String path, long size, long stamp)
+	{
+		this.entries.put(path, new Entry(size, stamp));
+	}
+
+	/**
+	 * @param path relative path ("/" separated)
+	 * @param size size in bytes
+	 * @param stamp CRC of the jar entry or modification time of the file
+	 * @return true if the manifest has the same file, with the same size and stamp
+	 */
+	public boolean contains(String path, long size, long stamp)
+	{
+		Entry entry = this.entries.get(path);
+
+		return entry != null && entry.size == size && entry.stamp == stamp;
+	}
+
+	/**
+	 * @param current manifest of the current resources
+	 * @return the paths of this manifest that are not in the current one
+	 */
+	public Set<String> removedIn(ResourcesManifest current)
+	{
+		Set<String> outcome = new HashSet<String>(this.entries.keySet());
+		outcome.removeAll(current.entries.keySet());
+
+		return outcome;
+	}
+
+	/**
+	 * @return number of files of the manifest
+	 */
+	public int size()
+	{
+		return this.entries.size();
+	}
+
+	/**
+	 * Size and stamp of a file
+	 */
+	private static final class Entry
+	{
+		/** Attribute - size in bytes */
+		private final long size;
+
+		/** Attribute - CRC or modification time */
+		private final long stamp;
+
+		/**
+		 * @param size size in bytes
+		 * @param stamp CRC or modification time
+		 */
+		private Entry(long size, long stamp)
+		{
+			this.size  = size;
+			this.stamp = stamp;
+		}
+	}
+}
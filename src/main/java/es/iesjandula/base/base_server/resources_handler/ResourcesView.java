@@ -0,0 +1,246 @@
+package es.iesjandula.base.base_server.resources_handler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Read-only view of a resource folder, an alternative to copyToDirectory when only a few resources are used. The view
+ * is backed by the folder itself for exploded runs and by the zip file system for JARs, so nothing is written to disk
+ * when it is opened. The resources are read straight from the source, or extracted one by one the first time a caller
+ * needs them as a real file
+ */
+public final class ResourcesView implements Closeable
+{
+	/** Logger of the class */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResourcesView.class);
+
+	/** Attribute - Root of the resource folder */
+	private final Path root;
+
+	/** Attribute - Zip file systems opened for this view, closed with it in reverse order (empty for folders) */
+	private final List<FileSystem> fileSystems;
+
+	/** Attribute - Directory where the resources are extracted on demand (null if they are already on disk) */
+	private final Path extractionDir;
+
+	/** Attribute - Paths already extracted by this view */
+	private final Set<String> extractedPaths;
+
+	/** Attribute - Lock of the extractions */
+	private final ReentrantLock extractionLock;
+
+	/**
+	 * @param root root of the resource folder
+	 * @param fileSystems zip file systems opened for this view (the outer JAR first)
+	 * @param extractionDir directory where the resources are extracted on demand, or null
+	 */
+	ResourcesView(Path root, List<FileSystem> fileSystems, Path extractionDir)
+	{
+		this.root 			= root;
+		this.fileSystems 	= fileSystems;
+		this.extractionDir 	= extractionDir;
+		this.extractedPaths = new HashSet<String>();
+		this.extractionLock = new ReentrantLock();
+	}
+
+	/**
+	 * @return root of the resource folder
+	 */
+	public Path getRoot()
+	{
+		return this.root;
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return true if the resource exists and is a file
+	 */
+	public boolean exists(String path)
+	{
+		Path resource = this.resolve(path);
+
+		return resource != null && Files.isRegularFile(resource);
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return an input stream of the resource, read straight from the folder or the JAR. The caller must close it
+	 * @throws BaseServerException if the resource does not exist or cannot be read
+	 */
+	public InputStream openStream(String path) throws BaseServerException
+	{
+		try
+		{
+			return Files.newInputStream(this.resolveExisting(path));
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while opening the resource " + path;
+
+			LOGGER.error(errorString, ioException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the content of the resource
+	 * @throws BaseServerException if the resource does not exist or cannot be read
+	 */
+	public byte[] readAllBytes(String path) throws BaseServerException
+	{
+		try
+		{
+			return Files.readAllBytes(this.resolveExisting(path));
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while reading the resource " + path;
+
+			LOGGER.error(errorString, ioException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+	}
+
+	/**
+	 * Gets the resource as a file of the default file system, for the callers that need a real file (external
+	 * processes, native libraries...). Resources of an exploded folder are returned as they are; resources of a JAR are
+	 * extracted to the extraction directory the first time they are requested by this view
+	 *
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the file of the resource
+	 * @throws BaseServerException if the resource does not exist, cannot be extracted or the view has no extraction
+	 * directory
+	 */
+	public Path getFile(String path) throws BaseServerException
+	{
+		Path resource = this.resolveExisting(path);
+
+		if (resource.getFileSystem() == FileSystems.getDefault())
+		{
+			return resource;
+		}
+
+		if (this.extractionDir == null)
+		{
+			String errorString = "The resource " + path + " is inside a JAR and the view has no extraction directory";
+
+			LOGGER.error(errorString);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
+		}
+
+		String relativePath = this.root.relativize(resource).toString();
+		Path extractedFile  = this.extractionDir.resolve(relativePath);
+
+		this.extractionLock.lock();
+		try
+		{
+			// Always overwritten the first time, so a file extracted from a previous JAR is never served
+			if (this.extractedPaths.add(relativePath))
+			{
+				this.extract(resource, extractedFile);
+			}
+		}
+		catch (BaseServerException baseServerException)
+		{
+			this.extractedPaths.remove(relativePath);
+			throw baseServerException;
+		}
+		finally
+		{
+			this.extractionLock.unlock();
+		}
+
+		return extractedFile;
+	}
+
+	/**
+	 * @param resource resource inside the JAR
+	 * @param extractedFile destination file
+	 * @throws BaseServerException with an occurred exception
+	 */
+	private void extract(Path resource, Path extractedFile) throws BaseServerException
+	{
+		Path temporaryFile = extractedFile.resolveSibling(extractedFile.getFileName() + ".tmp");
+
+		try
+		{
+			Files.createDirectories(extractedFile.getParent());
+
+			// Written aside and then moved, so a reader never sees a half extracted file
+			Files.copy(resource, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temporaryFile, extractedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			LOGGER.debug("Extracted resource [{}]", extractedFile);
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException while extracting the resource " + resource + " to " + extractedFile;
+
+			LOGGER.error(errorString, ioException);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString, ioException);
+		}
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the resource, or null if the path goes outside of the resource folder
+	 */
+	private Path resolve(String path)
+	{
+		String relativePath = path.startsWith("/") ? path.substring(1) : path;
+		Path outcome 		= this.root.resolve(relativePath).normalize();
+
+		return outcome.startsWith(this.root) ? outcome : null;
+	}
+
+	/**
+	 * @param path path relative to the resource folder ("/" separated)
+	 * @return the resource
+	 * @throws BaseServerException if the resource does not exist or is outside of the resource folder
+	 */
+	private Path resolveExisting(String path) throws BaseServerException
+	{
+		Path outcome = this.resolve(path);
+
+		if (outcome == null || !Files.isRegularFile(outcome))
+		{
+			String errorString = "The resource " + path + " does not exist in " + this.root.toUri();
+
+			LOGGER.error(errorString);
+			throw new BaseServerException(BaseServerConstants.EXC_ERR_CODE_RESOURCES_HANDLER, errorString);
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Closes the zip file systems opened by the view. The extracted files are kept
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for (int i = this.fileSystems.size() - 1; i >= 0; i--)
+		{
+			this.fileSystems.get(i).close();
+		}
+	}
+}
@@ -2,18 +2,15 @@ package es.iesjandula.base.base_server.security ;
 
 
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
-import es.iesjandula.base.base_server.security.models.DtoUsuario;
+import es.iesjandula.base.base_server.metrics.MetricasService;
+import es.iesjandula.base.base_server.security.models.UsuarioVerificado;
 import es.iesjandula.base.base_server.security.service.AuthorizationService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -25,14 +22,33 @@ import jakarta.servlet.http.HttpServletResponse;
  * 
  * OncePerRequestFilter es una clase abstracta de Spring que asegura que el filtro se ejecuta una sola vez por solicitud HTTP
  * La idea es evitar que el filtro se ejecute múltiples veces durante una única solicitud. Por ejemplo, si nuestra aplicación realiza 
- * varias llamadas o redirecciones, este filtro solo se aplicará una vez por cada solicitud
+ * varias llamadas o redirecciones, este filtro solo se aplicará una vez por cada solicitud.
+ * Solo se usa en los microservicios Servlet; con WebFlux, su equivalente es JwtWebFilter
  */
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class JwtRequestFilter extends OncePerRequestFilter
 {
     @Autowired
     private AuthorizationService authorizationService ;
 
+    @Autowired
+    private RutasPublicasMatcher rutasPublicasMatcher ;
+
+    @Autowired
+    private MetricasService metricasService ;
+
+    /**
+     * Las rutas públicas no pasan por el filtro, así que no se parsea su token aunque traigan cabecera "Authorization"
+     * @param request con la petición de entrada
+     * @return true si la ruta es pública
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+    	return this.rutasPublicasMatcher.esPublica(request.getRequestURI(), request.getContextPath()) ;
+    }
+
     /**
      * @param request con la petición de entrada
      * @param response con la petición de salida
@@ -44,13 +60,8 @@ public class JwtRequestFilter extends OncePerRequestFilter
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) 
     			   throws ServletException, IOException
     {
-        String requestURI = request.getRequestURI();  // Obtener la URI de la solicitud actual
-        
-        // Si la URI es "/firebase/users/authorization" o "/firebase/jwt/getCustomToken", no ejecutar el filtro
-        if (requestURI.equals("/firebase/users/authorization") || requestURI.equals("/firebase/jwt/getCustomToken")) {
-            chain.doFilter(request, response); // Continuar sin aplicar el filtro
-            return; // Salir del filtro para estas rutas
-        }
+    	// Solo se mide la autenticación, no el resto de la cadena (que es el tiempo del propio microservicio)
+    	long inicio = this.metricasService.iniciar() ;
     	
     	// Obtemos el valor de cabecera de "Authorization"
         final String authorizationHeader = request.getHeader("Authorization") ;
@@ -58,19 +69,29 @@ public class JwtRequestFilter extends OncePerRequestFilter
         // Comprobamos que viene relleno
         if (authorizationHeader != null && authorizationHeader.startsWith("Bearer "))
         {
-            // Usamos el método "obtenerUsuario" para extraer los datos del usuario del JWT
-            DtoUsuario usuario = this.authorizationService.obtenerUsuario(authorizationHeader) ;
+            // Usamos el método "autenticarUsuario" para extraer los datos del usuario del JWT y sus roles,
+            // que ya vienen preparados para que Spring Security los utilice (y cacheados si el token se repite)
+            UsuarioVerificado usuarioVerificado = this.authorizationService.autenticarUsuario(authorizationHeader) ;
+            
+            // Si el token no es válido (o ya se rechazó hace poco), respondemos 401 sin excepciones ni seguir la cadena
+            if (usuarioVerificado == null)
+            {
+            	this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_RECHAZADO) ;
+            	
+            	response.setHeader("WWW-Authenticate", "Bearer error=\"invalid_token\"") ;
+            	response.setStatus(HttpServletResponse.SC_UNAUTHORIZED) ;
+            	return ;
+            }
 
-            // Creamos la lista de roles, basándonos en los recibidos, para que Spring Security los utilice
-            List<GrantedAuthority> authorities = usuario.getRoles().stream()
-											                       .map(SimpleGrantedAuthority::new)
-											                       .collect(Collectors.toList()) ;
-
-            // Creamos un objeto de autenticación con los datos del usuario
-            UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(usuario, null, authorities) ;
-
-            // Establecemos la autenticación en el contexto de seguridad de Spring
-            SecurityContextHolder.getContext().setAuthentication(authentication);
+            // Establecemos en el contexto de seguridad de Spring la autenticación con los datos del usuario,
+            // que se construye en cada petición a partir del usuario verificado en caché
+            SecurityContextHolder.getContext().setAuthentication(usuarioVerificado.getAutenticacion()) ;
+            
+            this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_ACIERTO) ;
+        }
+        else
+        {
+        	this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_ANONIMO) ;
         }
 
         // Esta línea permite que el procesamiento de la solicitud y la respuesta continúe pasando a lo largo de la cadena de filtros 
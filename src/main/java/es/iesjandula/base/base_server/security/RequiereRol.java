@@ -0,0 +1,27 @@
+package es.iesjandula.base.base_server.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import es.iesjandula.base.base_server.security.models.Rol;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Indica los roles de los que el usuario debe tener al menos uno para acceder al endpoint. Se puede poner en el
+ * método o en el controlador (la del método tiene prioridad). Al arrancar se compila en una tabla de máscaras que
+ * RequiereRolInterceptor comprueba con una única operación AND
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface RequiereRol
+{
+	/**
+	 * @return roles de los que se requiere al menos uno
+	 */
+	Rol[] value() ;
+}
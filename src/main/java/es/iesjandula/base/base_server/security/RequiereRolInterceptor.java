@@ -0,0 +1,133 @@
+package es.iesjandula.base.base_server.security;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import es.iesjandula.base.base_server.security.models.AutenticacionJwt;
+import es.iesjandula.base.base_server.security.models.Rol;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Comprueba las anotaciones {@link RequiereRol}. Cuando el contexto arranca, recorre todos los endpoints y construye
+ * una tabla inmutable endpoint → máscara requerida, de manera que cada petición se autoriza con una búsqueda y un AND.
+ * Solo atiende al arranque de su propio contexto, para que el de un contexto hijo no sustituya la tabla
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RequiereRolInterceptor implements HandlerInterceptor, ApplicationListener<ContextRefreshedEvent>,
+											   ApplicationContextAware
+{
+	/** Atributo - contexto en el que se ha creado el interceptor */
+	private ApplicationContext applicationContext ;
+	
+	/** Atributo - máscara requerida por cada método de endpoint anotado */
+	private volatile Map<Method, Integer> mascarasRequeridas = Collections.emptyMap() ;
+	
+	/**
+	 * @param applicationContext contexto en el que se ha creado el interceptor
+	 */
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext)
+	{
+		this.applicationContext = applicationContext ;
+	}
+	
+	/**
+	 * Compila las anotaciones de todos los endpoints en la tabla de máscaras
+	 * @param contextRefreshedEvent evento de contexto arrancado
+	 */
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent contextRefreshedEvent)
+	{
+		// Los eventos de los contextos hijos también llegan aquí, y sin sus endpoints la comprobación dejaría pasar todo
+		if (contextRefreshedEvent.getApplicationContext() != this.applicationContext)
+		{
+			return ;
+		}
+		
+		Map<Method, Integer> tabla = new HashMap<Method, Integer>() ;
+		
+		for (RequestMappingHandlerMapping handlerMapping : this.applicationContext.getBeansOfType(RequestMappingHandlerMapping.class)
+																				  .values())
+		{
+			for (HandlerMethod handlerMethod : handlerMapping.getHandlerMethods().values())
+			{
+				// La anotación del método tiene prioridad sobre la del controlador
+				RequiereRol requiereRol = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), RequiereRol.class) ;
+				
+				if (requiereRol == null)
+				{
+					requiereRol = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), RequiereRol.class) ;
+				}
+				
+				if (requiereRol != null)
+				{
+					tabla.put(handlerMethod.getMethod(), Rol.calcularMascara(requiereRol.value())) ;
+				}
+			}
+		}
+		
+		this.mascarasRequeridas = Collections.unmodifiableMap(tabla) ;
+		
+		log.info("Endpoints con @RequiereRol: {}", tabla.size()) ;
+	}
+	
+	/**
+	 * @param request petición
+	 * @param response respuesta
+	 * @param handler manejador de la petición
+	 * @return true si el usuario tiene alguno de los roles requeridos por el endpoint
+	 * @throws Exception con un error al enviar la respuesta
+	 */
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception
+	{
+		if (!(handler instanceof HandlerMethod))
+		{
+			return true ;
+		}
+		
+		Integer mascaraRequerida = this.mascarasRequeridas.get(((HandlerMethod) handler).getMethod()) ;
+		
+		if (mascaraRequerida == null)
+		{
+			return true ;
+		}
+		
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication() ;
+		
+		if (!(authentication instanceof AutenticacionJwt))
+		{
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED) ;
+			return false ;
+		}
+		
+		if (!Rol.tieneAlguno(((AutenticacionJwt) authentication).getMascaraRoles(), mascaraRequerida))
+		{
+			response.sendError(HttpServletResponse.SC_FORBIDDEN) ;
+			return false ;
+		}
+		
+		return true ;
+	}
+}
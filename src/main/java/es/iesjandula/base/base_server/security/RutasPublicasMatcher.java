@@ -0,0 +1,225 @@
+package es.iesjandula.base.base_server.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Rutas públicas (sin autenticación) compartidas por JwtRequestFilter y SecurityConfig, y por sus equivalentes reactivos.
+ * Los patrones se compilan una única vez en un árbol de prefijos por segmentos, de manera que comprobar una ruta cuesta
+ * tantos pasos como segmentos tenga. No depende de la API de Servlet, así que sirve también con WebFlux.
+ *
+ * Cada patrón admite segmentos literales, "*" (un segmento cualquiera) y "**" al final (cualquier resto, incluido ninguno).
+ * Un "**" en otra posición no se admite y el arranque falla, para que no haga pública toda la ruta que le precede
+ */
+@Slf4j
+@Component
+public class RutasPublicasMatcher
+{
+	/** Segmento comodín que coincide con un único segmento */
+	private static final String COMODIN_SEGMENTO = "*" ;
+
+	/** Segmento comodín que coincide con el resto de la ruta */
+	private static final String COMODIN_RESTO 	 = "**" ;
+
+	/** Patrones de las rutas públicas */
+	@Value("${reaktor.rutasPublicas:/public/**,/firebase/users/authorization,/firebase/jwt/getCustomToken}")
+	private String[] rutasPublicas ;
+
+	/** Atributo - Raíz del árbol de prefijos */
+	private Nodo raiz ;
+
+	/**
+	 * Compila los patrones en el árbol de prefijos
+	 * @throws BaseServerException si algún patrón tiene "**" en un segmento que no es el último
+	 */
+	@PostConstruct
+	public void init() throws BaseServerException
+	{
+		Nodo nuevaRaiz = new Nodo() ;
+
+		for (String rutaPublica : this.rutasPublicas)
+		{
+			String patron = rutaPublica.trim() ;
+
+			if (!patron.isEmpty())
+			{
+				this.anadirPatron(nuevaRaiz, patron) ;
+			}
+		}
+
+		this.raiz = nuevaRaiz ;
+
+		log.info("Rutas públicas: {}", String.join(", ", this.rutasPublicas)) ;
+	}
+
+	/**
+	 * @return los patrones de las rutas públicas
+	 */
+	public String[] getRutasPublicas()
+	{
+		return this.rutasPublicas.clone() ;
+	}
+
+	/**
+	 * @param ruta ruta completa de la petición
+	 * @param contextPath context path de la aplicación (puede ser null)
+	 * @return true si la ruta de la petición (sin el context path) es pública
+	 */
+	public boolean esPublica(String ruta, String contextPath)
+	{
+		int inicio = contextPath != null && ruta.startsWith(contextPath) ? contextPath.length() : 0 ;
+
+		return this.esPublica(this.raiz, ruta, inicio) ;
+	}
+
+	/**
+	 * @param ruta ruta a comprobar
+	 * @return true si la ruta es pública
+	 */
+	public boolean esPublica(String ruta)
+	{
+		return this.esPublica(this.raiz, ruta, 0) ;
+	}
+
+	/**
+	 * Recorre la ruta segmento a segmento por el árbol de prefijos. Primero se prueba el segmento literal
+	 * y, si por ahí no se llega a ningún patrón, el comodín
+	 *
+	 * @param nodo nodo actual del árbol
+	 * @param ruta ruta a comprobar
+	 * @param inicio posición de la ruta desde la que se comprueba
+	 * @return true si la ruta es pública
+	 */
+	private boolean esPublica(Nodo nodo, String ruta, int inicio)
+	{
+		if (nodo.resto)
+		{
+			return true ;
+		}
+
+		// Saltamos las barras, de manera que "/a//b/" equivale a "/a/b"
+		int posicion = inicio ;
+		while (posicion < ruta.length() && ruta.charAt(posicion) == '/')
+		{
+			posicion++ ;
+		}
+
+		if (posicion >= ruta.length())
+		{
+			return nodo.terminal ;
+		}
+
+		int fin = ruta.indexOf('/', posicion) ;
+		if (fin < 0)
+		{
+			fin = ruta.length() ;
+		}
+
+		Nodo literal = nodo.hijos.isEmpty() ? null : nodo.hijos.get(ruta.substring(posicion, fin)) ;
+		if (literal != null && this.esPublica(literal, ruta, fin))
+		{
+			return true ;
+		}
+
+		return nodo.comodin != null && this.esPublica(nodo.comodin, ruta, fin) ;
+	}
+
+	/**
+	 * @param nodoRaiz raíz del árbol
+	 * @param patron patrón a añadir
+	 * @throws BaseServerException si el patrón tiene "**" en un segmento que no es el último
+	 */
+	private void anadirPatron(Nodo nodoRaiz, String patron) throws BaseServerException
+	{
+		Nodo nodo 			= nodoRaiz ;
+		String[] segmentos 	= patron.split("/") ;
+
+		for (int i = 0 ; i < segmentos.length ; i++)
+		{
+			String segmento = segmentos[i] ;
+
+			if (segmento.isEmpty())
+			{
+				continue ;
+			}
+
+			if (COMODIN_RESTO.equals(segmento))
+			{
+				// Solo puede ir al final: el resto del patrón se ignoraría y toda la ruta anterior quedaría pública
+				if (!this.esUltimoSegmento(segmentos, i))
+				{
+					String errorString = "La ruta pública " + patron + " tiene \"" + COMODIN_RESTO + "\" antes del último segmento, " +
+										 "solo se admite al final" ;
+
+					log.error(errorString) ;
+					throw new BaseServerException(BaseServerConstants.ERR_INVALID_PUBLIC_ROUTE, errorString) ;
+				}
+
+				nodo.resto = true ;
+				return ;
+			}
+
+			if (COMODIN_SEGMENTO.equals(segmento))
+			{
+				if (nodo.comodin == null)
+				{
+					nodo.comodin = new Nodo() ;
+				}
+
+				nodo = nodo.comodin ;
+			}
+			else
+			{
+				nodo = nodo.hijos.computeIfAbsent(segmento, clave -> new Nodo()) ;
+			}
+		}
+
+		nodo.terminal = true ;
+	}
+
+	/**
+	 * @param segmentos segmentos del patrón
+	 * @param posicion posición de un segmento
+	 * @return true si después del segmento solo hay segmentos vacíos (barras finales)
+	 */
+	private boolean esUltimoSegmento(String[] segmentos, int posicion)
+	{
+		for (int i = posicion + 1 ; i < segmentos.length ; i++)
+		{
+			if (!segmentos[i].isEmpty())
+			{
+				return false ;
+			}
+		}
+
+		return true ;
+	}
+
+	/**
+	 * Nodo del árbol de prefijos. Solo se modifica al compilar los patrones
+	 */
+	private static final class Nodo
+	{
+		/** Atributo - hijos por segmento literal */
+		private final Map<String, Nodo> hijos = new HashMap<String, Nodo>() ;
+
+		/** Atributo - hijo para el comodín "*" */
+		private Nodo comodin ;
+
+		/** Atributo - true si un patrón termina en este nodo */
+		private boolean terminal ;
+
+		/** Atributo - true si un patrón termina en "**" en este nodo */
+		private boolean resto ;
+	}
+}
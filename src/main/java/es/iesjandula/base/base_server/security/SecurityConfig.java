@@ -2,6 +2,7 @@ package es.iesjandula.base.base_server.security;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,9 +16,11 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
  * @author Francisco Manuel Benítez Chico
  *  
  * Habilitamos la configuración de seguridad personalizada (@EnableWebSecurity) en vez de la predeterminada de Spring Security
- * Desactivamos la autoconfiguración del UserDetailsService ya que usamos JWT
+ * Desactivamos la autoconfiguración del UserDetailsService ya que usamos JWT.
+ * Solo se usa en los microservicios Servlet; con WebFlux, su equivalente es SecurityWebFluxConfig
  */
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @EnableWebSecurity
 @EnableAutoConfiguration(exclude = {UserDetailsServiceAutoConfiguration.class})
 public class SecurityConfig
@@ -25,6 +28,9 @@ public class SecurityConfig
 	@Autowired
 	private JwtRequestFilter jwtRequestFilter ;
 	
+	@Autowired
+	private RutasPublicasMatcher rutasPublicasMatcher ;
+	
 	/**
 	 * Este método genera un bean gestionado por el contenedor de Spring
 	 * @param http HTTP Security
@@ -44,9 +50,9 @@ public class SecurityConfig
 
             .authorizeHttpRequests(authz -> authz
             		
-            	// Permitimos que todas las solicitudes a las rutas "/public/**" sean accesibles sin autenticación
+            	// Permitimos que todas las solicitudes a las rutas públicas ("/public/**" por defecto) sean accesibles sin autenticación
             		
-                .requestMatchers("/public/**", "/firebase/users/authorization", "/firebase/jwt/getCustomToken").permitAll()
+                .requestMatchers(request -> this.rutasPublicasMatcher.esPublica(request.getRequestURI(), request.getContextPath())).permitAll()
                 
                 // Para cualquier otra ruta que no sean las anteriores, requerimos autenticación
                 
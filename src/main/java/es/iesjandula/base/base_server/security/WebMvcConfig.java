@@ -0,0 +1,29 @@
+package es.iesjandula.base.base_server.security;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Registra los interceptores de Spring MVC de BaseServer
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WebMvcConfig implements WebMvcConfigurer
+{
+	@Autowired
+	private RequiereRolInterceptor requiereRolInterceptor ;
+	
+	/**
+	 * @param interceptorRegistry registro de interceptores
+	 */
+	@Override
+	public void addInterceptors(InterceptorRegistry interceptorRegistry)
+	{
+		interceptorRegistry.addInterceptor(this.requiereRolInterceptor) ;
+	}
+}
@@ -0,0 +1,65 @@
+package es.iesjandula.base.base_server.security.models;
+
+import java.util.List;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Autenticación de un usuario con JWT que, además de las authorities, lleva la máscara de sus roles
+ * para poder autorizar con una única operación AND
+ */
+public class AutenticacionJwt extends UsernamePasswordAuthenticationToken
+{
+	/**
+	 * Serial Version UID
+	 */
+	private static final long serialVersionUID = -3071465946016398812L ;
+	
+	/** Atributo - máscara de los roles del usuario */
+	private final int mascaraRoles ;
+	
+	/**
+	 * @param usuario usuario
+	 * @param authorities authorities del usuario
+	 * @param mascaraRoles máscara de los roles del usuario
+	 */
+	public AutenticacionJwt(DtoUsuario usuario, List<GrantedAuthority> authorities, int mascaraRoles)
+	{
+		super(usuario, null, authorities) ;
+		
+		this.mascaraRoles = mascaraRoles ;
+	}
+	
+	/**
+	 * @return máscara de los roles del usuario
+	 */
+	public int getMascaraRoles()
+	{
+		return this.mascaraRoles ;
+	}
+	
+	/**
+	 * @param rol rol
+	 * @return true si el usuario tiene el rol
+	 */
+	public boolean tieneRol(Rol rol)
+	{
+		return (this.mascaraRoles & rol.getMascara()) != 0 ;
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		// AbstractAuthenticationToken.equals acepta cualquier otro token, así que primero se comprueba el tipo
+		return obj instanceof AutenticacionJwt otra && super.equals(obj) && otra.mascaraRoles == this.mascaraRoles ;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return 31 * super.hashCode() + this.mascaraRoles ;
+	}
+}
@@ -0,0 +1,207 @@
+package es.iesjandula.base.base_server.security.models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Roles de BaseServerConstants.ROLES_LIST representados como bits de una máscara. Cada rol tiene una única
+ * instancia de GrantedAuthority y, para cada combinación de roles, se precalcula la lista inmutable de authorities.
+ * El nombre de cada rol se toma de ROLES_LIST y la clase no se inicializa si ambas listas no coinciden
+ */
+public enum Rol
+{
+	/** Rol - Administrador */
+	ADMINISTRADOR,
+	
+	/** Rol - Profesor */
+	PROFESOR,
+	
+	/** Rol - Dirección */
+	DIRECCION,
+	
+	/** Rol - Cliente impresora */
+	CLIENTE_IMPRESORA ;
+	
+	/** Roles por nombre */
+	private static final Map<String, Rol> ROLES_POR_NOMBRE = new HashMap<String, Rol>() ;
+	
+	/** Lista inmutable de authorities para cada máscara posible */
+	private static final List<List<GrantedAuthority>> AUTHORITIES_POR_MASCARA = new ArrayList<List<GrantedAuthority>>() ;
+	
+	static
+	{
+		if (BaseServerConstants.ROLES_LIST.size() != Rol.values().length)
+		{
+			throw new IllegalStateException("Los roles de Rol no coinciden con BaseServerConstants.ROLES_LIST: " +
+											BaseServerConstants.ROLES_LIST) ;
+		}
+		
+		for (Rol rol : Rol.values())
+		{
+			ROLES_POR_NOMBRE.put(rol.nombre, rol) ;
+		}
+		
+		for (int mascara = 0 ; mascara < (1 << Rol.values().length) ; mascara++)
+		{
+			List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>() ;
+			
+			for (Rol rol : Rol.values())
+			{
+				if ((mascara & rol.mascara) != 0)
+				{
+					authorities.add(rol.authority) ;
+				}
+			}
+			
+			AUTHORITIES_POR_MASCARA.add(Collections.unmodifiableList(authorities)) ;
+		}
+	}
+	
+	/** Atributo - nombre del rol, tal y como viene en el JWT */
+	private final String nombre ;
+	
+	/** Atributo - bit del rol dentro de la máscara */
+	private final int mascara ;
+	
+	/** Atributo - authority única del rol */
+	private final GrantedAuthority authority ;
+	
+	/**
+	 * El nombre se toma de BaseServerConstants.ROLES_LIST, donde debe estar el mismo texto que el de la constante
+	 */
+	private Rol()
+	{
+		int posicion = BaseServerConstants.ROLES_LIST.indexOf(this.name()) ;
+		
+		if (posicion < 0)
+		{
+			throw new IllegalStateException("El rol " + this.name() + " no está en BaseServerConstants.ROLES_LIST") ;
+		}
+		
+		this.nombre 	= BaseServerConstants.ROLES_LIST.get(posicion) ;
+		this.mascara 	= 1 << this.ordinal() ;
+		this.authority  = new SimpleGrantedAuthority(this.nombre) ;
+	}
+	
+	/**
+	 * @return nombre del rol
+	 */
+	public String getNombre()
+	{
+		return this.nombre ;
+	}
+	
+	/**
+	 * @return bit del rol dentro de la máscara
+	 */
+	public int getMascara()
+	{
+		return this.mascara ;
+	}
+	
+	/**
+	 * @return authority única del rol
+	 */
+	public GrantedAuthority getAuthority()
+	{
+		return this.authority ;
+	}
+	
+	/**
+	 * @param nombre nombre del rol
+	 * @return el rol o null si no es uno de los conocidos
+	 */
+	public static Rol buscar(String nombre)
+	{
+		return ROLES_POR_NOMBRE.get(nombre) ;
+	}
+	
+	/**
+	 * @param roles roles
+	 * @return la máscara con los bits de los roles
+	 */
+	public static int calcularMascara(Rol... roles)
+	{
+		int outcome = 0 ;
+		
+		for (Rol rol : roles)
+		{
+			outcome |= rol.mascara ;
+		}
+		
+		return outcome ;
+	}
+	
+	/**
+	 * @param nombres nombres de los roles (puede ser null). Los desconocidos se ignoran
+	 * @return la máscara con los bits de los roles conocidos
+	 */
+	public static int calcularMascara(Collection<String> nombres)
+	{
+		int outcome = 0 ;
+		
+		if (nombres != null)
+		{
+			for (String nombre : nombres)
+			{
+				Rol rol = ROLES_POR_NOMBRE.get(nombre) ;
+				
+				if (rol != null)
+				{
+					outcome |= rol.mascara ;
+				}
+			}
+		}
+		
+		return outcome ;
+	}
+	
+	/**
+	 * @param nombres nombres de los roles (puede ser null)
+	 * @param mascara máscara de los roles conocidos, calculada con {@link #calcularMascara(Collection)}
+	 * @return la lista inmutable de authorities. Si todos los roles son conocidos, es una lista compartida precalculada
+	 */
+	public static List<GrantedAuthority> obtenerAuthorities(Collection<String> nombres, int mascara)
+	{
+		List<GrantedAuthority> outcome = AUTHORITIES_POR_MASCARA.get(mascara) ;
+		
+		// Si hay roles que no están en ROLES_LIST, los añadimos para no perderlos
+		if (nombres != null && nombres.size() > outcome.size())
+		{
+			List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(outcome) ;
+			
+			for (String nombre : nombres)
+			{
+				if (!ROLES_POR_NOMBRE.containsKey(nombre))
+				{
+					authorities.add(new SimpleGrantedAuthority(nombre)) ;
+				}
+			}
+			
+			outcome = Collections.unmodifiableList(authorities) ;
+		}
+		
+		return outcome ;
+	}
+	
+	/**
+	 * @param mascaraUsuario máscara de los roles del usuario
+	 * @param mascaraRequerida máscara de los roles de los que se requiere al menos uno
+	 * @return true si el usuario tiene alguno de los roles requeridos (o no se requiere ninguno)
+	 */
+	public static boolean tieneAlguno(int mascaraUsuario, int mascaraRequerida)
+	{
+		return mascaraRequerida == 0 || (mascaraUsuario & mascaraRequerida) != 0 ;
+	}
+}
@@ -0,0 +1,32 @@
+package es.iesjandula.base.base_server.security.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Token personalizado junto con su expiración. Es inmutable para poder sustituirse de forma atómica
+ */
+@AllArgsConstructor
+@Getter
+public class TokenPersonalizado
+{
+	/** Expiración desconocida: habrá que calcularla a partir del propio token */
+	public static final long EXPIRACION_DESCONOCIDA = -1L ;
+
+	/** Atributo - token JWT */
+	private final String token ;
+
+	/** Atributo - instante (en milisegundos) en el que expira el token */
+	private final long expiracion ;
+
+	/**
+	 * @param ahora instante actual en milisegundos
+	 * @return true si el token ha expirado en el instante indicado
+	 */
+	public boolean isExpirado(long ahora)
+	{
+		return this.expiracion <= ahora ;
+	}
+}
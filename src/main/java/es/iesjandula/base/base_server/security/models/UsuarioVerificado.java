@@ -0,0 +1,82 @@
+package es.iesjandula.base.base_server.security.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Resultado de verificar un token JWT. Es inmutable para poder compartirse entre peticiones desde la caché: el
+ * DtoUsuario (que tiene setters) y la autenticación de Spring Security se construyen de nuevo en cada llamada, así
+ * que lo que haga una petición con ellos no afecta a las demás
+ */
+@Getter
+public class UsuarioVerificado
+{
+	/** Atributo - email */
+	@Getter(AccessLevel.NONE)
+	private final String email ;
+
+	/** Atributo - nombre */
+	@Getter(AccessLevel.NONE)
+	private final String nombre ;
+
+	/** Atributo - apellidos */
+	@Getter(AccessLevel.NONE)
+	private final String apellidos ;
+
+	/** Atributo - roles (no modificable, null si el token no tiene) */
+	@Getter(AccessLevel.NONE)
+	private final List<String> roles ;
+
+	/** Atributo - authorities para Spring Security */
+	private final List<GrantedAuthority> authorities ;
+	
+	/** Atributo - máscara de los roles del usuario */
+	private final int mascaraRoles ;
+	
+	/** Atributo - instante (en milisegundos) a partir del cual la entrada deja de ser válida */
+	private final long expiracion ;
+
+	/** Atributo - generación de las claves públicas con las que se verificó el token */
+	private final long generacionClaves ;
+	
+	/**
+	 * @param usuario usuario, que se copia
+	 * @param expiracion instante (en milisegundos) a partir del cual la entrada deja de ser válida
+	 * @param generacionClaves generación de las claves públicas con las que se verificó el token
+	 */
+	public UsuarioVerificado(DtoUsuario usuario, long expiracion, long generacionClaves)
+	{
+		this.email 		  = usuario.getEmail() ;
+		this.nombre 	  = usuario.getNombre() ;
+		this.apellidos 	  = usuario.getApellidos() ;
+		this.roles 		  = usuario.getRoles() == null ? null : Collections.unmodifiableList(new ArrayList<String>(usuario.getRoles())) ;
+		this.mascaraRoles = Rol.calcularMascara(this.roles) ;
+		this.authorities  = Rol.obtenerAuthorities(this.roles, this.mascaraRoles) ;
+		this.expiracion   = expiracion ;
+		this.generacionClaves = generacionClaves ;
+	}
+
+	/**
+	 * @return una copia nueva del usuario, con su propia lista de roles (modificable, como antes de la caché)
+	 */
+	public DtoUsuario getUsuario()
+	{
+		return new DtoUsuario(this.email, this.nombre, this.apellidos, this.roles == null ? null : new ArrayList<String>(this.roles)) ;
+	}
+
+	/**
+	 * @return una autenticación nueva para Spring Security, cuyo principal es una copia del usuario
+	 */
+	public AutenticacionJwt getAutenticacion()
+	{
+		return new AutenticacionJwt(this.getUsuario(), this.authorities, this.mascaraRoles) ;
+	}
+}
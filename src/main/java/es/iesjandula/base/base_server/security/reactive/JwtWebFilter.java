@@ -0,0 +1,102 @@
+package es.iesjandula.base.base_server.security.reactive;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import es.iesjandula.base.base_server.metrics.MetricasService;
+import es.iesjandula.base.base_server.security.RutasPublicasMatcher;
+import es.iesjandula.base.base_server.security.models.UsuarioVerificado;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Equivalente reactivo (WebFlux) de JwtRequestFilter. La verificación es la misma (AuthorizationService, con su caché de
+ * tokens verificados y rechazados), y la autenticación se propaga en el contexto de Reactor en vez de en el del hilo.
+ * 
+ * No es un bean: lo crea SecurityWebFluxConfig para añadirlo solo a la cadena de seguridad, ya que WebFlux registraría
+ * cualquier WebFilter del contexto en todas las peticiones
+ */
+public class JwtWebFilter implements WebFilter
+{
+	/** Prefijo de la cabecera "Authorization" */
+	private static final String PREFIJO_BEARER = "Bearer " ;
+	
+	/** Atributo - servicio de autorización */
+	private final AuthorizationService authorizationService ;
+	
+	/** Atributo - rutas públicas */
+	private final RutasPublicasMatcher rutasPublicasMatcher ;
+	
+	/** Atributo - métricas */
+	private final MetricasService metricasService ;
+	
+	/**
+	 * @param authorizationService servicio de autorización
+	 * @param rutasPublicasMatcher rutas públicas
+	 * @param metricasService métricas
+	 */
+	public JwtWebFilter(AuthorizationService authorizationService, RutasPublicasMatcher rutasPublicasMatcher, MetricasService metricasService)
+	{
+		this.authorizationService = authorizationService ;
+		this.rutasPublicasMatcher = rutasPublicasMatcher ;
+		this.metricasService 	  = metricasService ;
+	}
+	
+	/**
+	 * @param exchange petición y respuesta
+	 * @param chain cadena de filtros
+	 * @return la continuación de la cadena, o la respuesta 401 si el token no es válido
+	 */
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+	{
+		ServerHttpRequest request = exchange.getRequest() ;
+		
+		// Las rutas públicas no pasan por el filtro, así que no se parsea su token aunque traigan cabecera "Authorization"
+		if (this.rutasPublicasMatcher.esPublica(request.getPath().value(), request.getPath().contextPath().value()))
+		{
+			return chain.filter(exchange) ;
+		}
+		
+		long inicio = this.metricasService.iniciar() ;
+		
+		String authorizationHeader = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION) ;
+		
+		if (authorizationHeader == null || !authorizationHeader.startsWith(PREFIJO_BEARER))
+		{
+			this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_ANONIMO) ;
+			
+			return chain.filter(exchange) ;
+		}
+		
+		// La verificación es CPU pura y, con el token en caché, cuesta microsegundos, así que se hace en el event loop
+		UsuarioVerificado usuarioVerificado = this.authorizationService.autenticarUsuario(authorizationHeader) ;
+		
+		// Si el token no es válido (o ya se rechazó hace poco), respondemos 401 sin seguir la cadena
+		if (usuarioVerificado == null)
+		{
+			this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_RECHAZADO) ;
+			
+			ServerHttpResponse response = exchange.getResponse() ;
+			
+			response.getHeaders().set(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"") ;
+			response.setStatusCode(HttpStatus.UNAUTHORIZED) ;
+			
+			return response.setComplete() ;
+		}
+		
+		this.metricasService.registrarFiltro(inicio, MetricasService.RESULTADO_ACIERTO) ;
+		
+		// La autenticación se construye en cada petición a partir del usuario verificado en caché
+		return chain.filter(exchange)
+					.contextWrite(ReactiveSecurityContextHolder.withAuthentication(usuarioVerificado.getAutenticacion())) ;
+	}
+}
@@ -0,0 +1,85 @@
+package es.iesjandula.base.base_server.security.reactive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.security.reactive.ReactiveUserDetailsServiceAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher.MatchResult;
+
+import es.iesjandula.base.base_server.metrics.MetricasService;
+import es.iesjandula.base.base_server.security.RutasPublicasMatcher;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Equivalente reactivo (WebFlux) de SecurityConfig. Solo se activa en los microservicios WebFlux, con las mismas
+ * reglas: las rutas públicas no requieren autenticación y el resto sí, sin sesión y con el token JWT validado por JwtWebFilter
+ */
+@Configuration
+@EnableWebFluxSecurity
+@EnableAutoConfiguration(exclude = {ReactiveUserDetailsServiceAutoConfiguration.class})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class SecurityWebFluxConfig
+{
+	@Autowired
+	private AuthorizationService authorizationService ;
+	
+	@Autowired
+	private RutasPublicasMatcher rutasPublicasMatcher ;
+	
+	@Autowired
+	private MetricasService metricasService ;
+	
+	/**
+	 * @param http configuración de seguridad de WebFlux
+	 * @return la cadena de filtros de seguridad
+	 */
+	@Bean
+	public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http)
+	{
+		JwtWebFilter jwtWebFilter = new JwtWebFilter(this.authorizationService, this.rutasPublicasMatcher, this.metricasService) ;
+		
+		http
+		
+		// Deshabilitamos CSRF y los mecanismos de login de Spring, ya que se usa JWT
+		
+			.csrf(csrf -> csrf.disable())
+			.httpBasic(httpBasic -> httpBasic.disable())
+			.formLogin(formLogin -> formLogin.disable())
+			
+		// Sin estado: la autenticación se calcula en cada petición a partir del token (y su caché), sin guardarla en sesión
+			
+			.securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+			
+		// Las rutas públicas son accesibles sin autenticación y el resto la requieren
+			
+			.authorizeExchange(exchanges -> exchanges
+				.matchers(exchange -> this.rutasPublicasMatcher.esPublica(exchange.getRequest().getPath().value(),
+																		  exchange.getRequest().getPath().contextPath().value())
+											? MatchResult.match() : MatchResult.notMatch()).permitAll()
+				.anyExchange().authenticated()
+			)
+			
+		// Sin token, se responde 403 igual que en la configuración Servlet
+			
+			.exceptionHandling(exceptionHandling -> exceptionHandling
+				.authenticationEntryPoint(new HttpStatusServerEntryPoint(HttpStatus.FORBIDDEN))
+			)
+			
+		// Validamos el token JWT en el punto de la cadena donde Spring hace la autenticación
+			
+			.addFilterAt(jwtWebFilter, SecurityWebFiltersOrder.AUTHENTICATION) ;
+		
+		return http.build() ;
+	}
+}
@@ -0,0 +1,253 @@
+package es.iesjandula.base.base_server.security.reactive;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientException;
+
+import es.iesjandula.base.base_server.metrics.MetricasService;
+import es.iesjandula.base.base_server.security.models.TokenPersonalizado;
+import es.iesjandula.base.base_server.security.service.AlmacenTokenCompartido;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import es.iesjandula.base.base_server.security.service.SessionStorageService;
+import es.iesjandula.base.base_server.security.service.UidService;
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+import es.iesjandula.base.base_server.utils.CircuitBreaker;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Variante no bloqueante de AuthorizationService.obtenerTokenPersonalizado, para los microservicios WebFlux (o cualquiera
+ * que tenga WebClient). Comparte con ella el token en "sesión", el almacén compartido y el circuit breaker de FirebaseServer.
+ *
+ * Si varias peticiones necesitan el token a la vez, solo se hace una petición a FirebaseServer y todas reciben su resultado.
+ * La petición no se cancela aunque se cancele la petición que la originó, para no dejar al resto sin token
+ */
+@Slf4j
+@Service
+@ConditionalOnClass(name = "org.springframework.web.reactive.function.client.WebClient")
+public class TokenPersonalizadoReactivoService
+{
+	@Value("${reaktor.firebase_server_url}")
+	private String firebaseServerUrl ;
+
+	/** Tiempo (en segundos) tras su expiración durante el que se sigue sirviendo el último token si FirebaseServer no responde */
+	@Value("${reaktor.tokenPersonalizado.graciaSegundos:0}")
+	private long graciaSegundos ;
+
+	@Autowired
+	private AuthorizationService authorizationService ;
+
+	@Autowired
+	private SessionStorageService sessionStorageService ;
+
+	@Autowired
+	private UidService uidService ;
+
+	@Autowired
+	private AlmacenTokenCompartido almacenTokenCompartido ;
+
+	@Autowired
+	private MetricasService metricasService ;
+
+	@Autowired
+	private ObjectProvider<WebClient.Builder> webClientBuilderProvider ;
+
+	/** Atributo - Cliente HTTP no bloqueante contra FirebaseServer */
+	private WebClient webClient ;
+
+	/** Atributo - Petición del token en curso, compartida por todas las que llegan mientras tanto */
+	private final AtomicReference<Mono<TokenPersonalizado>> peticionEnCurso = new AtomicReference<Mono<TokenPersonalizado>>() ;
+
+	/**
+	 * Crea el WebClient a partir del builder de Spring Boot (con sus codecs y métricas) si lo hay
+	 */
+	@PostConstruct
+	public void init()
+	{
+		this.webClient = this.webClientBuilderProvider.getIfAvailable(WebClient::builder)
+													  .baseUrl(this.firebaseServerUrl)
+													  .build() ;
+	}
+
+	/**
+	 * @param timeout timeout de la petición a FirebaseServer
+	 * @return el token JWT guardado en "sesión" o, si no hay o ha expirado, el obtenido de FirebaseServer
+	 */
+	public Mono<String> obtenerTokenPersonalizado(Duration timeout)
+	{
+		TokenPersonalizado tokenPersonalizado = this.obtenerTokenEnSesion() ;
+
+		boolean enSesion = tokenPersonalizado != null && !tokenPersonalizado.isExpirado(System.currentTimeMillis()) ;
+
+		this.metricasService.contarTokenSesion(enSesion) ;
+
+		if (enSesion)
+		{
+			return Mono.just(tokenPersonalizado.getToken()) ;
+		}
+
+		// Si FirebaseServer no responde, el token anterior puede seguir sirviendo durante la ventana de gracia
+		return this.refrescarTokenPersonalizado(timeout)
+				   .onErrorResume(BaseServerException.class, baseServerException -> this.obtenerTokenDeRespaldo(tokenPersonalizado, baseServerException))
+				   .map(TokenPersonalizado::getToken) ;
+	}
+
+	/**
+	 * @param timeout timeout de la petición a FirebaseServer
+	 * @return la petición en curso o, si no hay ninguna, una nueva
+	 */
+	private Mono<TokenPersonalizado> refrescarTokenPersonalizado(Duration timeout)
+	{
+		Mono<TokenPersonalizado> enCurso = this.peticionEnCurso.get() ;
+
+		while (enCurso == null)
+		{
+			Sinks.One<TokenPersonalizado> sink = Sinks.one() ;
+			Mono<TokenPersonalizado> nueva 	   = sink.asMono() ;
+
+			if (this.peticionEnCurso.compareAndSet(null, nueva))
+			{
+				// Somos los primeros: lanzamos la petición, que al terminar deja paso a la siguiente
+				this.pedirTokenPersonalizado(timeout)
+					.doFinally(signalType -> this.peticionEnCurso.compareAndSet(nueva, null))
+					.subscribe(sink::tryEmitValue, sink::tryEmitError) ;
+
+				return nueva ;
+			}
+
+			enCurso = this.peticionEnCurso.get() ;
+		}
+
+		return enCurso ;
+	}
+
+	/**
+	 * @param timeout timeout de la petición a FirebaseServer
+	 * @return el token de "sesión" si otra petición lo acaba de renovar, el del almacén compartido o uno nuevo de FirebaseServer
+	 */
+	private Mono<TokenPersonalizado> pedirTokenPersonalizado(Duration timeout)
+	{
+		// El UID y el almacén compartido se leen de ficheros locales, así que se hace fuera del event loop
+		return Mono.fromCallable(this.uidService::obtenerUid)
+				   .subscribeOn(Schedulers.boundedElastic())
+				   .onErrorMap(IOException.class, ioException ->
+				   {
+					   String errorString = "IOException mientras se leía el UID para obtener el token JWT del servidor" ;
+
+					   log.error(errorString, ioException) ;
+					   return new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
+				   })
+				   .flatMap(uid ->
+				   {
+					   TokenPersonalizado tokenPersonalizado = this.obtenerTokenEnSesion() ;
+
+					   if (tokenPersonalizado == null || tokenPersonalizado.isExpirado(System.currentTimeMillis()))
+					   {
+						   tokenPersonalizado = this.almacenTokenCompartido.leer(uid) ;
+					   }
+
+					   if (tokenPersonalizado != null && !tokenPersonalizado.isExpirado(System.currentTimeMillis()))
+					   {
+						   return Mono.just(tokenPersonalizado) ;
+					   }
+
+					   return this.pedirTokenAFirebase(uid, timeout)
+							   	  .publishOn(Schedulers.boundedElastic())
+							   	  .doOnNext(nuevo -> this.almacenTokenCompartido.escribir(uid, nuevo)) ;
+				   })
+				   .doOnNext(this.sessionStorageService::setTokenPersonalizado) ;
+	}
+
+	/**
+	 * @param uid UID con el que se pide el token
+	 * @param timeout timeout de la petición
+	 * @return el token obtenido de FirebaseServer junto con su expiración
+	 */
+	private Mono<TokenPersonalizado> pedirTokenAFirebase(String uid, Duration timeout)
+	{
+		CircuitBreaker circuitoFirebase = this.authorizationService.getCircuitoFirebase() ;
+
+		if (!circuitoFirebase.permitirPeticion())
+		{
+			String errorString = "Circuito abierto hacia FirebaseServer, no se pide el token JWT" ;
+
+			return Mono.error(new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString)) ;
+		}
+
+		return this.webClient.post()
+							 .uri("/firebase/jwt/getCustomToken")
+							 .header(BaseServerConstants.FIREBASE_UID, uid)
+							 .retrieve()
+							 .bodyToMono(String.class)
+							 .timeout(timeout)
+							 .switchIfEmpty(Mono.error(() -> new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT,
+									 												 "Respuesta vacía del servidor al obtener el token JWT")))
+							 .map(token -> new TokenPersonalizado(token, this.authorizationService.obtenerExpiracion(token)))
+							 .doOnNext(tokenPersonalizado -> circuitoFirebase.registrarExito())
+							 .doOnError(exception -> circuitoFirebase.registrarFallo())
+							 .onErrorMap(TimeoutException.class, timeoutException ->
+							 {
+								 String errorString = "Timeout al comunicarse con el servidor (token JWT)" ;
+
+								 log.error(errorString, timeoutException) ;
+								 return new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, timeoutException) ;
+							 })
+							 .onErrorMap(WebClientException.class, webClientException ->
+							 {
+								 String errorString = "WebClientException mientras se obtenía el token JWT del servidor" ;
+
+								 log.error(errorString, webClientException) ;
+								 return new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, webClientException) ;
+							 }) ;
+	}
+
+	/**
+	 * @param tokenAnterior último token conocido (puede ser null)
+	 * @param baseServerException error por el que no se ha obtenido un token nuevo
+	 * @return el token anterior si todavía está dentro de la ventana de gracia, o el error recibido
+	 */
+	private Mono<TokenPersonalizado> obtenerTokenDeRespaldo(TokenPersonalizado tokenAnterior, BaseServerException baseServerException)
+	{
+		if (tokenAnterior != null && !tokenAnterior.isExpirado(System.currentTimeMillis() - this.graciaSegundos * 1000L))
+		{
+			log.warn("{}. Se sigue usando el último token JWT conocido", baseServerException.getMessage()) ;
+
+			return Mono.just(tokenAnterior) ;
+		}
+
+		return Mono.error(baseServerException) ;
+	}
+
+	/**
+	 * @return el token de "sesión" con su expiración calculada si no se conocía (puede ser null)
+	 */
+	private TokenPersonalizado obtenerTokenEnSesion()
+	{
+		TokenPersonalizado tokenPersonalizado = this.sessionStorageService.getTokenPersonalizado() ;
+
+		if (tokenPersonalizado != null && tokenPersonalizado.getExpiracion() == TokenPersonalizado.EXPIRACION_DESCONOCIDA)
+		{
+			// Se guardó con setToken(String), así que calculamos su expiración una única vez
+			tokenPersonalizado = new TokenPersonalizado(tokenPersonalizado.getToken(), this.authorizationService.obtenerExpiracion(tokenPersonalizado.getToken())) ;
+
+			this.sessionStorageService.setTokenPersonalizado(tokenPersonalizado) ;
+		}
+
+		return tokenPersonalizado ;
+	}
+}
@@ -0,0 +1,302 @@
+package es.iesjandula.base.base_server.security.service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.iesjandula.base.base_server.security.models.TokenPersonalizado;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Almacén opcional del token personalizado en un fichero mapeado en memoria y compartido por todos los procesos
+ * del equipo. Así, un microservicio reiniciado (o uno hermano con el mismo UID) reutiliza al instante un token
+ * todavía válido en vez de pedirlo a FirebaseServer. Los accesos entre procesos se protegen con bloqueos del fichero.
+ * Como el fichero guarda un token en vigor, en sistemas POSIX solo puede leerlo y escribirlo su propietario (rw-------)
+ * 
+ * Formato: [magia (int)][expiración (long)][longitud UID (int)][UID][longitud token (int)][token]
+ */
+@Slf4j
+@Component
+public class AlmacenTokenCompartido
+{
+	/** Tamaño del fichero mapeado */
+	private static final int TAMANIO = 16 * 1024 ;
+	
+	/** Número mágico que indica que el fichero tiene un token escrito con este formato */
+	private static final int MAGIA = 0x524B5431 ;
+	
+	/** Permisos del fichero compartido en sistemas POSIX: solo el propietario */
+	private static final Set<PosixFilePermission> PERMISOS = PosixFilePermissions.fromString("rw-------") ;
+	
+	/** Ruta del fichero compartido. Si está vacía, el almacén está deshabilitado */
+	@Value("${reaktor.tokenPersonalizado.ficheroCompartido:}")
+	private String ficheroCompartido ;
+	
+	/** Atributo - Canal del fichero */
+	private FileChannel fileChannel ;
+	
+	/** Atributo - Fichero mapeado en memoria */
+	private MappedByteBuffer mappedByteBuffer ;
+	
+	/** Atributo - Bloqueo entre hilos de este proceso (el bloqueo del fichero solo protege entre procesos) */
+	private final ReentrantLock bloqueo = new ReentrantLock() ;
+	
+	/**
+	 * Abre y mapea el fichero compartido si está configurado
+	 */
+	@PostConstruct
+	public void init()
+	{
+		if (!this.ficheroCompartido.isEmpty())
+		{
+			Path path = Paths.get(this.ficheroCompartido) ;
+			
+			try
+			{
+				this.fileChannel 	  = this.abrirFichero(path) ;
+				this.mappedByteBuffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, TAMANIO) ;
+				
+				log.info("Token personalizado compartido en el fichero {}", path) ;
+			}
+			catch (IOException ioException)
+			{
+				log.warn("No se ha podido abrir el fichero compartido del token personalizado {}, se usará solo memoria", path, ioException) ;
+				
+				this.cerrar() ;
+			}
+		}
+	}
+	
+	/**
+	 * Abre el fichero sin seguir enlaces simbólicos. En sistemas POSIX lo crea con permisos rw------- y, si ya existía
+	 * con permisos más abiertos, los restringe; si no puede (no es su propietario), no lo usa
+	 * 
+	 * @param path ruta del fichero compartido
+	 * @return el canal del fichero
+	 * @throws IOException si no se puede abrir o sus permisos no se pueden restringir
+	 */
+	private FileChannel abrirFichero(Path path) throws IOException
+	{
+		Set<OpenOption> opciones = Set.of(StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS) ;
+		
+		if (Files.getFileAttributeView(path.toAbsolutePath().getParent(), PosixFileAttributeView.class) == null)
+		{
+			// Sin permisos POSIX (Windows), se protege con los permisos heredados del directorio
+			return FileChannel.open(path, Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) ;
+		}
+		
+		try
+		{
+			Set<OpenOption> opcionesCreacion = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE) ;
+			
+			return FileChannel.open(path, opcionesCreacion, PosixFilePermissions.asFileAttribute(PERMISOS)) ;
+		}
+		catch (FileAlreadyExistsException fileAlreadyExistsException)
+		{
+			// Ya existía, así que comprobamos sus permisos antes de usarlo
+			Set<PosixFilePermission> permisos = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS) ;
+			
+			if (!PERMISOS.containsAll(permisos))
+			{
+				log.warn("El fichero compartido del token personalizado {} tiene permisos {}, se restringen a {}", path,
+						 PosixFilePermissions.toString(permisos), PosixFilePermissions.toString(PERMISOS)) ;
+				
+				Files.setPosixFilePermissions(path, PERMISOS) ;
+			}
+			
+			return FileChannel.open(path, opciones) ;
+		}
+	}
+	
+	/**
+	 * Cierra el fichero compartido
+	 */
+	@PreDestroy
+	public void cerrar()
+	{
+		this.mappedByteBuffer = null ;
+		
+		if (this.fileChannel != null)
+		{
+			try
+			{
+				this.fileChannel.close() ;
+			}
+			catch (IOException ioException)
+			{
+				log.warn("IOException mientras se cerraba el fichero compartido del token personalizado", ioException) ;
+			}
+			
+			this.fileChannel = null ;
+		}
+	}
+	
+	/**
+	 * @return true si el almacén está habilitado
+	 */
+	public boolean isHabilitado()
+	{
+		return this.mappedByteBuffer != null ;
+	}
+	
+	/**
+	 * @param uid UID para el que se pidió el token
+	 * @return el token guardado para ese UID o null si no hay o no se puede leer
+	 */
+	public TokenPersonalizado leer(String uid)
+	{
+		TokenPersonalizado outcome = null ;
+		
+		if (this.isHabilitado())
+		{
+			this.bloqueo.lock() ;
+			
+			try
+			{
+				FileLock fileLock = this.fileChannel.lock(0, TAMANIO, true) ;
+				
+				try
+				{
+					outcome = this.leerSinBloqueo(uid) ;
+				}
+				finally
+				{
+					fileLock.release() ;
+				}
+			}
+			catch (IOException ioException)
+			{
+				log.warn("IOException mientras se leía el fichero compartido del token personalizado", ioException) ;
+			}
+			finally
+			{
+				this.bloqueo.unlock() ;
+			}
+		}
+		
+		return outcome ;
+	}
+	
+	/**
+	 * @param uid UID para el que se pidió el token
+	 * @param tokenPersonalizado token a guardar
+	 */
+	public void escribir(String uid, TokenPersonalizado tokenPersonalizado)
+	{
+		if (this.isHabilitado())
+		{
+			byte[] uidBytes   = uid.getBytes(StandardCharsets.UTF_8) ;
+			byte[] tokenBytes = tokenPersonalizado.getToken().getBytes(StandardCharsets.UTF_8) ;
+			
+			if (4 + 8 + 4 + uidBytes.length + 4 + tokenBytes.length > TAMANIO)
+			{
+				log.warn("El token personalizado no cabe en el fichero compartido, no se guarda") ;
+				return ;
+			}
+			
+			this.bloqueo.lock() ;
+			
+			try
+			{
+				FileLock fileLock = this.fileChannel.lock(0, TAMANIO, false) ;
+				
+				try
+				{
+					// Invalidamos primero para que nadie lea un registro a medio escribir si el proceso muere en medio
+					this.mappedByteBuffer.putInt(0, 0) ;
+					
+					int posicion = 4 ;
+					this.mappedByteBuffer.putLong(posicion, tokenPersonalizado.getExpiracion()) ;
+					posicion += 8 ;
+					this.mappedByteBuffer.putInt(posicion, uidBytes.length) ;
+					posicion += 4 ;
+					this.mappedByteBuffer.put(posicion, uidBytes) ;
+					posicion += uidBytes.length ;
+					this.mappedByteBuffer.putInt(posicion, tokenBytes.length) ;
+					posicion += 4 ;
+					this.mappedByteBuffer.put(posicion, tokenBytes) ;
+					
+					this.mappedByteBuffer.putInt(0, MAGIA) ;
+				}
+				finally
+				{
+					fileLock.release() ;
+				}
+			}
+			catch (IOException ioException)
+			{
+				log.warn("IOException mientras se escribía el fichero compartido del token personalizado", ioException) ;
+			}
+			finally
+			{
+				this.bloqueo.unlock() ;
+			}
+		}
+	}
+	
+	/**
+	 * @param uid UID para el que se pidió el token
+	 * @return el token guardado para ese UID o null si no hay
+	 */
+	private TokenPersonalizado leerSinBloqueo(String uid)
+	{
+		if (this.mappedByteBuffer.getInt(0) != MAGIA)
+		{
+			return null ;
+		}
+		
+		int posicion 	= 4 ;
+		long expiracion = this.mappedByteBuffer.getLong(posicion) ;
+		posicion += 8 ;
+		
+		int longitudUid = this.mappedByteBuffer.getInt(posicion) ;
+		posicion += 4 ;
+		if (longitudUid < 0 || posicion + longitudUid + 4 > TAMANIO)
+		{
+			return null ;
+		}
+		
+		byte[] uidBytes = new byte[longitudUid] ;
+		this.mappedByteBuffer.get(posicion, uidBytes) ;
+		posicion += longitudUid ;
+		
+		// Si lo pidió otro UID, no nos sirve
+		if (!uid.equals(new String(uidBytes, StandardCharsets.UTF_8)))
+		{
+			return null ;
+		}
+		
+		int longitudToken = this.mappedByteBuffer.getInt(posicion) ;
+		posicion += 4 ;
+		if (longitudToken <= 0 || posicion + longitudToken > TAMANIO)
+		{
+			return null ;
+		}
+		
+		byte[] tokenBytes = new byte[longitudToken] ;
+		this.mappedByteBuffer.get(posicion, tokenBytes) ;
+		
+		return new TokenPersonalizado(new String(tokenBytes, StandardCharsets.UTF_8), expiracion) ;
+	}
+}
@@ -2,16 +2,10 @@ package es.iesjandula.base.base_server.security.service ;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.Base64;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
@@ -19,16 +13,26 @@ import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import es.iesjandula.base.base_server.http_client.HttpClientConfig;
+import es.iesjandula.base.base_server.metrics.MetricasService;
 import es.iesjandula.base.base_server.security.models.DtoUsuario;
+import es.iesjandula.base.base_server.security.models.TokenPersonalizado;
+import es.iesjandula.base.base_server.security.models.UsuarioVerificado;
 import es.iesjandula.base.base_server.utils.BaseServerConstants;
 import es.iesjandula.base.base_server.utils.BaseServerException;
+import es.iesjandula.base.base_server.utils.CircuitBreaker;
 import es.iesjandula.base.base_server.utils.HttpClientUtils;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.UnsupportedJwtException;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 
@@ -39,94 +43,210 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class AuthorizationService
 {
-	@Value("${reaktor.publicKeyFile}")
-	private String baseServerPublicKeyFile ;
-	
 	@Value("${reaktor.firebase_server_url}")
 	private String firebaseServerUrl ;
 	
-	@Value("${reaktor.uidFile}")
-	private String uidFile ;
-	
 	@Autowired
 	private SessionStorageService sessionStorageService ;
 	
+	@Autowired
+	private CacheUsuariosVerificados cacheUsuariosVerificados ;
+	
+	@Autowired
+	private RegistroClavesPublicas registroClavesPublicas ;
+	
+	@Autowired
+	private UidService uidService ;
+	
+	@Autowired
+	private AlmacenTokenCompartido almacenTokenCompartido ;
+	
+	@Autowired
+	private MetricasService metricasService ;
+	
+	@Autowired
+	@Qualifier(HttpClientConfig.BEAN_HTTP_CLIENT)
+	private CloseableHttpClient baseServerHttpClient ;
+	
+	/** Margen (en segundos) antes de la expiración con el que se renueva proactivamente el token personalizado */
+	@Value("${reaktor.tokenPersonalizado.margenRefrescoSegundos:60}")
+	private long margenRefrescoSegundos ;
+	
+	/** Timeout (en milisegundos) de la renovación proactiva del token personalizado */
+	@Value("${reaktor.tokenPersonalizado.timeoutRefrescoMillis:10000}")
+	private int timeoutRefrescoMillis ;
+	
+	/** Tiempo (en segundos) tras su expiración durante el que se sigue sirviendo el último token si FirebaseServer no responde */
+	@Value("${reaktor.tokenPersonalizado.graciaSegundos:0}")
+	private long graciaSegundos ;
+	
+	/** Fallos consecutivos que abren el circuito hacia FirebaseServer */
+	@Value("${reaktor.tokenPersonalizado.circuito.umbralFallos:3}")
+	private int circuitoUmbralFallos ;
+	
+	/** Espera (en milisegundos) tras la primera apertura del circuito. Se duplica en cada nueva apertura */
+	@Value("${reaktor.tokenPersonalizado.circuito.esperaBaseMillis:1000}")
+	private long circuitoEsperaBaseMillis ;
+	
+	/** Espera máxima (en milisegundos) del circuito abierto */
+	@Value("${reaktor.tokenPersonalizado.circuito.esperaMaximaMillis:60000}")
+	private long circuitoEsperaMaximaMillis ;
+	
+	/** Atributo - Circuit breaker de las peticiones a FirebaseServer */
+	private CircuitBreaker circuitoFirebase ;
+	
+	/** Atributo - Bloqueo para que solo haya una petición del token personalizado en curso */
+	private final ReentrantLock bloqueoRefrescoToken = new ReentrantLock() ;
+	
 	/** Atributo - JWT Parser */
 	private JwtParser jwtParser ;
 	
 	/**
 	 * Inicializa la instancia de JWT Parser
-	 * @throws BaseServerException con un error al leer la clave pública
 	 */
 	@PostConstruct
-	public void init() throws BaseServerException
+	public void init()
 	{
 		this.jwtParser = Jwts.parser() 								 // Inicializa el parser (analizador) de JWT
-                			 .verifyWith(this.obtenerClavePublica()) // Configura la clave pública para validar la firma del JWT
+                			 .keyLocator(this.registroClavesPublicas) // Resuelve la clave pública con la que validar la firma por el "kid" del JWT
                 			 .build() ; 							 // Construye el objeto del parser configurado
+		
+		this.circuitoFirebase = new CircuitBreaker(this.circuitoUmbralFallos, this.circuitoEsperaBaseMillis, this.circuitoEsperaMaximaMillis) ;
 	}
 	
 	/**
-	 * @return la clave pública
-	 * @throws BaseServerException con un error
+	 * @return el circuit breaker de las peticiones a FirebaseServer, compartido con la variante reactiva
 	 */
-	private PublicKey obtenerClavePublica() throws BaseServerException
+	public CircuitBreaker getCircuitoFirebase()
 	{
+		return this.circuitoFirebase ;
+	}
+	
+	/**
+	 * @param authorizationHeader authorization header (jwt)
+	 * @return el usuario encontrado, una instancia nueva en cada llamada aunque el token venga de la caché
+	 */
+	public DtoUsuario obtenerUsuario(String authorizationHeader)
+	{
+		long inicio = this.metricasService.iniciar() ;
+		
 		try
 		{
-		    // Lee el contenido del archivo de clave pública ('public_key.pem') y lo convierte a una cadena (String)
-		    String publicKeyContent = new String(Files.readAllBytes(Paths.get(this.baseServerPublicKeyFile)));
-		    
-		    // Elimina los saltos de línea (\n) y las etiquetas de inicio y fin de la clave pública
-		    publicKeyContent = publicKeyContent.replaceAll("\\n", "") // Elimina todos los saltos de línea
-					 						   .replaceAll("\\r", "")
-									           .replace("-----BEGIN PUBLIC KEY-----", "")        // Elimina la etiqueta de inicio de la clave pública
-									           .replace("-----END PUBLIC KEY-----", "") ;        // Elimina la etiqueta de fin de la clave pública
-		    
-		    // Crea una instancia de KeyFactory para el algoritmo de clave pública RSA
-		    KeyFactory keyFactory = KeyFactory.getInstance("RSA") ;
-		    
-		    // Crea una especificación de clave pública X509 a partir de la cadena decodificada en Base64
-		    X509EncodedKeySpec keySpec = new X509EncodedKeySpec(Base64.getDecoder().decode(publicKeyContent)) ;
-		    
-		    // Genera una instancia de PublicKey a partir de la especificación de clave pública (keySpec)
-		    return keyFactory.generatePublic(keySpec) ;
-		}
-		catch (IOException ioException)
-		{
-			String errorString = "IOException mientras se cargaba el fichero con la clave privada" ;
-			
-			log.error(errorString, ioException) ;
-			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, ioException) ;
-		}
-		catch (InvalidKeySpecException invalidKeySpecException)
-		{
-			String errorString = "InvalidKeySpecException mientras se cargaba el fichero con la clave privada" ;
-			
-			log.error(errorString, invalidKeySpecException) ;
-			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, invalidKeySpecException) ;
+			return this.obtenerUsuarioVerificado(authorizationHeader).getUsuario() ;
 		}
-		catch (NoSuchAlgorithmException noSuchAlgorithmException)
+		finally
 		{
-			String errorString = "NoSuchAlgorithmException mientras se cargaba el fichero con la clave privada" ;
-			
-			log.error(errorString, noSuchAlgorithmException) ;
-			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, noSuchAlgorithmException) ;
+			this.metricasService.registrarObtenerUsuario(inicio) ;
 		}
 	}
 	
 	/**
 	 * @param authorizationHeader authorization header (jwt)
-	 * @return el usuario encontrado
+	 * @return el usuario verificado junto con sus authorities. Si el token ya se verificó antes, se devuelve desde caché
+	 * @throws JwtException si el token no es válido o ya se rechazó hace poco
 	 */
-	public DtoUsuario obtenerUsuario(String authorizationHeader)
+	public UsuarioVerificado obtenerUsuarioVerificado(String authorizationHeader)
+	{
+		return this.verificarConCache(authorizationHeader, true) ;
+	}
+	
+	/**
+	 * Igual que {@link #obtenerUsuarioVerificado(String)}, pero sin excepciones: si el token ya se rechazó hace poco,
+	 * se descarta sin volver a verificar la firma ni lanzar ninguna excepción
+	 * 
+	 * @param authorizationHeader authorization header (jwt)
+	 * @return el usuario verificado o null si el token no es válido
+	 */
+	public UsuarioVerificado autenticarUsuario(String authorizationHeader)
+	{
+		return this.verificarConCache(authorizationHeader, false) ;
+	}
+	
+	/**
+	 * @param authorizationHeader authorization header (jwt)
+	 * @param lanzarExcepcion true si un token no válido debe lanzar excepción, false si debe devolver null
+	 * @return el usuario verificado o null si el token no es válido y no se lanza excepción
+	 */
+	private UsuarioVerificado verificarConCache(String authorizationHeader, boolean lanzarExcepcion)
 	{
 	    // Eliminamos el prefijo "Bearer " del encabezado de autorización para obtener el token JWT limpio
 	    String token = authorizationHeader.substring(7) ;
-
+	    
+	    // Calculamos el resumen del token solo si alguna de las cachés está habilitada
+	    String clave = null ;
+	    
+	    if (this.cacheUsuariosVerificados.isHabilitada() || this.cacheUsuariosVerificados.isRechazadosHabilitada())
+	    {
+	    	clave = this.cacheUsuariosVerificados.calcularClave(token) ;
+	    	
+	    	UsuarioVerificado usuarioVerificado = this.cacheUsuariosVerificados.obtener(clave) ;
+	    	
+	    	if (usuarioVerificado != null)
+	    	{
+	    		this.metricasService.contarCacheUsuarios(MetricasService.RESULTADO_ACIERTO) ;
+	    		
+	    		return usuarioVerificado ;
+	    	}
+	    	
+	    	// Si se rechazó hace poco, no volvemos a verificar la firma
+	    	if (this.cacheUsuariosVerificados.isRechazado(clave))
+	    	{
+	    		this.metricasService.contarCacheUsuarios(MetricasService.RESULTADO_RECHAZADO) ;
+	    		
+	    		if (lanzarExcepcion)
+	    		{
+	    			throw new UnsupportedJwtException("Token JWT rechazado previamente") ;
+	    		}
+	    		
+	    		return null ;
+	    	}
+	    	
+	    	this.metricasService.contarCacheUsuarios(MetricasService.RESULTADO_FALLO) ;
+	    }
+	    
+	    // La generación de las claves se lee antes de verificar: si se recargan mientras tanto, el resultado no se guarda
+	    long generacionClaves = this.cacheUsuariosVerificados.getGeneracion() ;
+	    
+	    try
+	    {
+	    	// No estaba (o caducó), así que verificamos la firma y lo guardamos
+	    	UsuarioVerificado usuarioVerificado = this.verificarToken(token, generacionClaves) ;
+	    	
+	    	if (clave != null)
+	    	{
+	    		this.cacheUsuariosVerificados.guardar(clave, usuarioVerificado) ;
+	    	}
+	    	
+	    	return usuarioVerificado ;
+	    }
+	    catch (JwtException | IllegalArgumentException exception)
+	    {
+	    	// Recordamos el rechazo para que los reintentos con el mismo token no vuelvan a verificar la firma
+	    	if (clave != null)
+	    	{
+	    		this.cacheUsuariosVerificados.rechazar(clave, generacionClaves) ;
+	    	}
+	    	
+	    	if (lanzarExcepcion)
+	    	{
+	    		throw exception ;
+	    	}
+	    	
+	    	log.debug("Token JWT rechazado: {}", exception.getMessage()) ;
+	    	
+	    	return null ;
+	    }
+	}
+	
+	/**
+	 * @param token token JWT sin el prefijo "Bearer "
+	 * @param generacionClaves generación de las claves públicas antes de verificar
+	 * @return el usuario verificado
+	 */
+	private UsuarioVerificado verificarToken(String token, long generacionClaves)
+	{
 	    // Parseamos y verificamos el token JWT utilizando la clave pública y obtiene los claims
-	    Claims claims = this.jwtParser.parseSignedClaims(token) // Parsea el JWT firmado y verifica su firma
-	                        		  .getPayload() ; 			// Obtiene el cuerpo (claims) del JWT
+	    Claims claims = this.verificarFirma(token) ;
 	    
 	    // Recogemos el resto de valores
 	    String email       = (String) claims.get(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_EMAIL) ;
@@ -136,110 +256,355 @@ public class AuthorizationService
 	    // Extraemos los roles del usuario desde los claims obtenidos
 	    @SuppressWarnings("unchecked")
 	    List<String> roles = (List<String>) claims.get(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_ROLES) ;
+	    
+	    // Calculamos hasta cuándo es válida la entrada a partir del "exp" del token
+	    Date expirationDate = claims.getExpiration() ;
+	    long expiracion     = this.cacheUsuariosVerificados.calcularExpiracion(expirationDate == null ? null : expirationDate.getTime()) ;
 
-	    // Devolvemos la instancia del usuario
-	    return new DtoUsuario(email, nombre, apellidos, roles) ;
+	    // Devolvemos la instancia del usuario verificado, que calcula la máscara de sus roles y sus authorities
+	    return new UsuarioVerificado(new DtoUsuario(email, nombre, apellidos, roles), expiracion, generacionClaves) ;
 	}
 	
 	/**
-	 * Realiza una solicitud HTTP POST al otro microservicio para obtener un token personalizado
+	 * @param token token JWT sin el prefijo "Bearer "
+	 * @return los claims del token, tras verificar su firma y que su emisor corresponde a la clave
+	 */
+	private Claims verificarFirma(String token)
+	{
+	    Jws<Claims> jws = this.jwtParser.parseSignedClaims(token) ; // Parsea el JWT firmado y verifica su firma
+	    
+	    this.registroClavesPublicas.comprobarEmisor(jws.getHeader(), jws.getPayload()) ;
+	    
+	    return jws.getPayload() ; 									 // Obtiene el cuerpo (claims) del JWT
+	}
+	
+	/**
+	 * Devuelve el token personalizado guardado en "sesión" o, si no hay o ha expirado, lo pide al microservicio Firebase.
+	 * Si varios hilos lo necesitan a la vez, solo uno hace la petición y el resto reutiliza su resultado
 	 *
-	 * @param timeout
+	 * @param timeout timeout en milisegundos de la petición (y de la espera a la petición en curso de otro hilo)
 	 * @return El token JWT obtenido del microservicio
 	 * @throws BaseServerException error al obtener el token
 	 */
 	public String obtenerTokenPersonalizado(int timeout) throws BaseServerException
 	{
-	    // Verificamos si ya tenemos un token en "sesión"
-		String token = this.sessionStorageService.getToken() ;
-
-		if (token == null || this.tokenExpirado(token))
+		long inicio = this.metricasService.iniciar() ;
+		
+		try
 		{
-			CloseableHttpClient closeableHttpClient 	= HttpClientUtils.crearHttpClientConTimeout(timeout) ;
-		    CloseableHttpResponse closeableHttpResponse = null ;
-
-		    try
-		    {
-			    // Creamos una solicitud HTTP POST a nuestro microservicio Firebase
-			    HttpPost postRequest = new HttpPost(this.firebaseServerUrl + "/firebase/jwt/getCustomToken") ;
-		    	
-			    // Añadimos el UID al encabezado de la solicitud con el valor del fichero
-			    postRequest.addHeader(BaseServerConstants.FIREBASE_UID, Files.readString(Paths.get(this.uidFile)).trim()) ;
-		    	
-		        // Ejecutamos la solicitud HTTP
-		        closeableHttpResponse = closeableHttpClient.execute(postRequest) ;
-
-		        // Verificamos el estado de la respuesta HTTP
-		        int statusCode = closeableHttpResponse.getStatusLine().getStatusCode() ;
-		        
-		        if (statusCode != 200)
-		        {
-		            // Si la respuesta no es exitosa, lanza una excepción
-		            String errorString = "Error al obtener el token JWT. El código de respuesta es: " + statusCode ;
-		            
-		            log.error(errorString) ;
-		            throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString) ;
-		        }
-
-		        // Si el código de respuesta es 200, obtenemos el contenido del cuerpo, que es el token JWT
-	            token = EntityUtils.toString(closeableHttpResponse.getEntity()) ;
-
-	            // Almacenar el nuevo token en la "sesión"
-	            this.sessionStorageService.setToken(token) ;
-		    }
-			catch (SocketTimeoutException socketTimeoutException)
+		    // Verificamos si ya tenemos un token válido en "sesión"
+			TokenPersonalizado tokenPersonalizado = this.completarExpiracion(this.sessionStorageService.getTokenPersonalizado()) ;
+			
+			boolean enSesion = tokenPersonalizado != null && !tokenPersonalizado.isExpirado(System.currentTimeMillis()) ;
+			
+			this.metricasService.contarTokenSesion(enSesion) ;
+	
+			if (!enSesion)
 			{
-				String errorString = "SocketTimeoutException de lectura o escritura al comunicarse con el servidor (token JWT)" ;
-				
-				log.error(errorString, socketTimeoutException) ;
-				throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, socketTimeoutException) ;
-	        }
-			catch (ConnectTimeoutException connectTimeoutException)
+				tokenPersonalizado = this.refrescarTokenPersonalizado(timeout, 0L) ;
+			}
+			
+			return tokenPersonalizado.getToken() ;
+		}
+		finally
+		{
+			this.metricasService.registrarTokenPersonalizado(inicio) ;
+		}
+	}
+	
+	/**
+	 * Renueva en segundo plano el token personalizado cuando le queda menos del margen configurado para expirar,
+	 * de manera que los hilos que lo piden nunca tengan que esperar a la red. Solo actúa si ya se pidió alguna vez
+	 */
+	@Scheduled(fixedDelayString = "${reaktor.tokenPersonalizado.comprobacionMillis:10000}")
+	public void refrescarTokenPersonalizadoProactivamente()
+	{
+		TokenPersonalizado tokenPersonalizado = this.sessionStorageService.getTokenPersonalizado() ;
+		
+		if (tokenPersonalizado != null)
+		{
+			long margen = this.margenRefrescoSegundos * 1000L ;
+			
+			try
 			{
-				String errorString = "ConnectTimeoutException al intentar conectar con el servidor (token JWT)" ;
-				
-				log.error(errorString, connectTimeoutException) ;
-				throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, connectTimeoutException) ;
-	        }
-		    catch (IOException ioException)
-		    {
-		        String errorString = "IOException mientras se obtenía el token JWT del servidor" ;
-		        
-		        log.error(errorString, ioException) ;
-		        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
-		    }
-		    finally
-		    {
-		    	if (closeableHttpResponse != null)
-		    	{
-		    		try
-		    		{
-						closeableHttpResponse.close() ;
-					}
-		    		catch (IOException ioException)
-		    		{
-		    	        String errorString = "IOException mientras se cerraba la respuesta al obtener el token JWT del servidor" ;
-		    	        
-		    	        log.error(errorString, ioException) ;
-		    	        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
-					}
-		    	}
-		    	
-				try
+				if (this.completarExpiracion(tokenPersonalizado).isExpirado(System.currentTimeMillis() + margen))
 				{
-					// Cerramos el CloseableHttpClient
-					closeableHttpClient.close() ;
+					log.info("El token personalizado expira en menos de {} segundos, lo renovamos", this.margenRefrescoSegundos) ;
+					
+					this.refrescarTokenPersonalizado(this.timeoutRefrescoMillis, margen) ;
 				}
-				catch (IOException ioException)
+			}
+			catch (BaseServerException baseServerException)
+			{
+				// Ya se ha trazado el error. Los hilos seguirán usando el token actual mientras no expire
+				log.warn("No se pudo renovar proactivamente el token personalizado") ;
+			}
+		}
+	}
+	
+	/**
+	 * Pide un nuevo token personalizado asegurando que solo hay una petición en curso. Los hilos que llegan mientras
+	 * otro está pidiéndolo esperan a que termine y reutilizan el token obtenido
+	 *
+	 * @param timeout timeout en milisegundos
+	 * @param margen milisegundos antes de su expiración a partir de los cuales el token actual se considera no válido
+	 * @return el token personalizado válido
+	 * @throws BaseServerException error al obtener el token
+	 */
+	private TokenPersonalizado refrescarTokenPersonalizado(int timeout, long margen) throws BaseServerException
+	{
+		try
+		{
+			// Un timeout de 0 significa sin límite, igual que en la petición HTTP
+			if (timeout <= 0)
+			{
+				this.bloqueoRefrescoToken.lockInterruptibly() ;
+			}
+			else if (!this.bloqueoRefrescoToken.tryLock(timeout, TimeUnit.MILLISECONDS))
+			{
+				String errorString = "Timeout esperando a que otro hilo obtuviera el token JWT del servidor" ;
+				
+				log.error(errorString) ;
+				
+				// Si el token anterior sigue dentro de la ventana de gracia, lo servimos mientras tanto
+				return this.obtenerTokenDeRespaldo(this.sessionStorageService.getTokenPersonalizado(),
+												   new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString)) ;
+			}
+		}
+		catch (InterruptedException interruptedException)
+		{
+			Thread.currentThread().interrupt() ;
+			
+			String errorString = "InterruptedException esperando a que otro hilo obtuviera el token JWT del servidor" ;
+			
+			log.error(errorString, interruptedException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, interruptedException) ;
+		}
+		
+		try
+		{
+			// Volvemos a comprobar, ya que otro hilo ha podido renovarlo mientras esperábamos
+			TokenPersonalizado tokenPersonalizado = this.completarExpiracion(this.sessionStorageService.getTokenPersonalizado()) ;
+			
+			if (tokenPersonalizado == null || tokenPersonalizado.isExpirado(System.currentTimeMillis() + margen))
+			{
+				TokenPersonalizado tokenAnterior = tokenPersonalizado ;
+				
+				String uid = this.obtenerUid() ;
+				
+				// Antes de ir a la red, miramos si otro proceso del equipo (o este mismo antes de reiniciarse) ya lo tiene
+				tokenPersonalizado = this.almacenTokenCompartido.leer(uid) ;
+				
+				if (tokenPersonalizado == null || tokenPersonalizado.isExpirado(System.currentTimeMillis() + margen))
 				{
-					String errorString = "Error al cerrar CloseableHttpClient: " + ioException.getMessage() ;
+					// Si FirebaseServer no responde, puede que tengamos que seguir sirviendo el token anterior
+					tokenPersonalizado = this.pedirTokenPersonalizadoConCircuito(uid, timeout, tokenAnterior) ;
 					
-					log.error(errorString, ioException) ;
-	    	        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
+					if (tokenPersonalizado == tokenAnterior)
+					{
+						return tokenAnterior ;
+					}
+					
+					this.almacenTokenCompartido.escribir(uid, tokenPersonalizado) ;
 				}
-		    }
+				
+				// Almacenamos el nuevo token en la "sesión" junto con su expiración
+				this.sessionStorageService.setTokenPersonalizado(tokenPersonalizado) ;
+			}
+			
+			return tokenPersonalizado ;
+		}
+		finally
+		{
+			this.bloqueoRefrescoToken.unlock() ;
+		}
+	}
+	
+	/**
+	 * Pide el token personalizado a través del circuit breaker. Con el circuito abierto, o si la petición falla,
+	 * se devuelve el token anterior mientras siga dentro de la ventana de gracia
+	 * 
+	 * @param uid UID con el que se pide el token
+	 * @param timeout timeout en milisegundos
+	 * @param tokenAnterior último token conocido (puede ser null)
+	 * @return el nuevo token o, si no se ha podido obtener, el anterior
+	 * @throws BaseServerException si no se ha podido obtener y el anterior no sirve
+	 */
+	private TokenPersonalizado pedirTokenPersonalizadoConCircuito(String uid, int timeout, TokenPersonalizado tokenAnterior) throws BaseServerException
+	{
+		if (!this.circuitoFirebase.permitirPeticion())
+		{
+			String errorString = "Circuito abierto hacia FirebaseServer, no se pide el token JWT" ;
+			
+			return this.obtenerTokenDeRespaldo(tokenAnterior, new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString)) ;
+		}
+		
+		boolean exito = false ;
+		
+		try
+		{
+			String token = this.pedirTokenPersonalizado(uid, timeout) ;
+			
+			exito = true ;
+			
+			return new TokenPersonalizado(token, this.obtenerExpiracion(token)) ;
+		}
+		catch (BaseServerException baseServerException)
+		{
+			return this.obtenerTokenDeRespaldo(tokenAnterior, baseServerException) ;
+		}
+		finally
+		{
+			if (exito)
+			{
+				this.circuitoFirebase.registrarExito() ;
+			}
+			else
+			{
+				this.circuitoFirebase.registrarFallo() ;
+			}
+		}
+	}
+	
+	/**
+	 * @param tokenAnterior último token conocido (puede ser null)
+	 * @param baseServerException error por el que no se ha obtenido un token nuevo
+	 * @return el token anterior si todavía está dentro de la ventana de gracia
+	 * @throws BaseServerException el error recibido si el token anterior no sirve
+	 */
+	private TokenPersonalizado obtenerTokenDeRespaldo(TokenPersonalizado tokenAnterior, BaseServerException baseServerException) throws BaseServerException
+	{
+		if (tokenAnterior != null && !tokenAnterior.isExpirado(System.currentTimeMillis() - this.graciaSegundos * 1000L))
+		{
+			log.warn("{}. Se sigue usando el último token JWT conocido", baseServerException.getMessage()) ;
+			
+			return tokenAnterior ;
 		}
 		
+		throw baseServerException ;
+	}
+	
+	/**
+	 * @param tokenPersonalizado token personalizado (puede ser null)
+	 * @return el token personalizado con la expiración calculada si no se conocía
+	 */
+	private TokenPersonalizado completarExpiracion(TokenPersonalizado tokenPersonalizado)
+	{
+		TokenPersonalizado outcome = tokenPersonalizado ;
+		
+		if (outcome != null && outcome.getExpiracion() == TokenPersonalizado.EXPIRACION_DESCONOCIDA)
+		{
+			// Se guardó con setToken(String), así que calculamos su expiración una única vez
+			outcome = new TokenPersonalizado(outcome.getToken(), this.obtenerExpiracion(outcome.getToken())) ;
+			
+			this.sessionStorageService.setTokenPersonalizado(outcome) ;
+		}
+		
+		return outcome ;
+	}
+	
+	/**
+	 * @return el UID con el que se pide el token personalizado
+	 * @throws BaseServerException con un error al leer el fichero del UID
+	 */
+	private String obtenerUid() throws BaseServerException
+	{
+		try
+		{
+			return this.uidService.obtenerUid() ;
+		}
+	    catch (IOException ioException)
+	    {
+	        String errorString = "IOException mientras se leía el fichero con el UID para obtener el token JWT" ;
+	        
+	        log.error(errorString, ioException) ;
+	        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
+	    }
+	}
+	
+	/**
+	 * Realiza una solicitud HTTP POST al otro microservicio para obtener un token personalizado
+	 *
+	 * @param uid UID con el que se pide el token
+	 * @param timeout timeout en milisegundos
+	 * @return El token JWT obtenido del microservicio
+	 * @throws BaseServerException error al obtener el token
+	 */
+	private String pedirTokenPersonalizado(String uid, int timeout) throws BaseServerException
+	{
+		String token = null ;
+
+	    CloseableHttpResponse closeableHttpResponse = null ;
+
+	    try
+	    {
+		    // Creamos una solicitud HTTP POST a nuestro microservicio Firebase con el timeout indicado para esta llamada
+		    HttpPost postRequest = new HttpPost(this.firebaseServerUrl + "/firebase/jwt/getCustomToken") ;
+		    postRequest.setConfig(HttpClientUtils.crearRequestConfig(timeout)) ;
+	    	
+		    // Añadimos el UID al encabezado de la solicitud
+		    postRequest.addHeader(BaseServerConstants.FIREBASE_UID, uid) ;
+	    	
+	        // Ejecutamos la solicitud HTTP con el cliente compartido, que reutiliza las conexiones del pool
+	        closeableHttpResponse = this.baseServerHttpClient.execute(postRequest) ;
+
+	        // Verificamos el estado de la respuesta HTTP
+	        int statusCode = closeableHttpResponse.getStatusLine().getStatusCode() ;
+	        
+	        if (statusCode != 200)
+	        {
+	            // Si la respuesta no es exitosa, lanza una excepción
+	            String errorString = "Error al obtener el token JWT. El código de respuesta es: " + statusCode ;
+	            
+	            // Consumimos el cuerpo para que la conexión vuelva al pool
+	            EntityUtils.consumeQuietly(closeableHttpResponse.getEntity()) ;
+	            
+	            log.error(errorString) ;
+	            throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString) ;
+	        }
+
+	        // Si el código de respuesta es 200, obtenemos el contenido del cuerpo, que es el token JWT
+            token = EntityUtils.toString(closeableHttpResponse.getEntity()) ;
+	    }
+		catch (SocketTimeoutException socketTimeoutException)
+		{
+			String errorString = "SocketTimeoutException de lectura o escritura al comunicarse con el servidor (token JWT)" ;
+			
+			log.error(errorString, socketTimeoutException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, socketTimeoutException) ;
+        }
+		catch (ConnectTimeoutException connectTimeoutException)
+		{
+			String errorString = "ConnectTimeoutException al intentar conectar con el servidor (token JWT)" ;
+			
+			log.error(errorString, connectTimeoutException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, connectTimeoutException) ;
+        }
+	    catch (IOException ioException)
+	    {
+	        String errorString = "IOException mientras se obtenía el token JWT del servidor" ;
+	        
+	        log.error(errorString, ioException) ;
+	        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
+	    }
+	    finally
+	    {
+	    	if (closeableHttpResponse != null)
+	    	{
+	    		try
+	    		{
+					closeableHttpResponse.close() ;
+				}
+	    		catch (IOException ioException)
+	    		{
+	    	        String errorString = "IOException mientras se cerraba la respuesta al obtener el token JWT del servidor" ;
+	    	        
+	    	        log.error(errorString, ioException) ;
+	    	        throw new BaseServerException(BaseServerConstants.ERR_GETTING_PERSONALIZED_TOKEN_JWT, errorString, ioException) ;
+				}
+	    	}
+	    }
+		
 		return token ;
 	}
 	
@@ -251,25 +616,36 @@ public class AuthorizationService
 	 */
 	public boolean tokenExpirado(String token)
 	{
+		long inicio = this.metricasService.iniciar() ;
+		
 		try
 		{
-		    // Parseamos y decodificamos el token JWT utilizando la clave pública y obtenemos los claims
-		    Claims claims = this.jwtParser.parseSignedClaims(token) // Parsea el JWT firmado y verifica su firma
-		                        		  .getPayload() ; 			// Obtiene el cuerpo (claims) del JWT
-	
-			// Obtenemos la fecha de expiración del token
-			Date expirationDate = claims.getExpiration() ;
+			return this.obtenerExpiracion(token) <= System.currentTimeMillis() ;
+		}
+		finally
+		{
+			this.metricasService.registrarTokenExpirado(inicio) ;
+		}
+	}
 	
-			// Obtenemos el tiempo actual
-			Date now = new Date() ;
+	/**
+	 * @param token El token JWT
+	 * @return instante (en milisegundos) en el que expira el token, o 0 si el token no es válido
+	 */
+	public long obtenerExpiracion(String token)
+	{
+		try
+		{
+		    // Parseamos y decodificamos el token JWT utilizando la clave pública y obtenemos los claims
+		    Claims claims = this.verificarFirma(token) ;
 	
-			// Devuelve true si el token ha expirado, de lo contrario, false
-			return expirationDate.before(now) ;
+			// Devolvemos la fecha de expiración del token
+			return claims.getExpiration().getTime() ;
 		}
 		catch (Exception exception)
 		{
 			// Si ocurre una excepción (por ejemplo, token inválido), lo consideramos expirado
-			return true ;
+			return 0L ;
 		}
 	}
 }
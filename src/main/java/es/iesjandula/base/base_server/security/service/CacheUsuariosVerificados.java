@@ -0,0 +1,287 @@
+package es.iesjandula.base.base_server.security.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import es.iesjandula.base.base_server.security.models.UsuarioVerificado;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Caché acotada y concurrente de tokens JWT ya verificados. La clave es un resumen SHA-256 del token,
+ * de manera que no guardamos los tokens en claro, y cada entrada caduca como muy tarde en el "exp" del token
+ */
+@Slf4j
+@Component
+public class CacheUsuariosVerificados
+{
+	/** Número máximo de entradas. Con 0 se deshabilita la caché */
+	@Value("${reaktor.jwtCache.maxEntradas:10000}")
+	private int maxEntradas ;
+
+	/** Tiempo máximo (en segundos) que una entrada permanece en caché, aunque el token caduque más tarde */
+	@Value("${reaktor.jwtCache.ttlMaximoSegundos:3600}")
+	private long ttlMaximoSegundos ;
+
+	/** Número máximo de tokens rechazados que se recuerdan. Con 0 se deshabilita la caché negativa */
+	@Value("${reaktor.jwtCache.maxRechazados:10000}")
+	private int maxRechazados ;
+
+	/** Tiempo (en segundos) durante el que se recuerda un token rechazado */
+	@Value("${reaktor.jwtCache.ttlRechazadosSegundos:60}")
+	private long ttlRechazadosSegundos ;
+
+	/** Atributo - Entradas de la caché */
+	private final ConcurrentHashMap<String, UsuarioVerificado> entradas = new ConcurrentHashMap<String, UsuarioVerificado>() ;
+
+	/** Atributo - Tokens rechazados (resumen → instante en milisegundos hasta el que se recuerda) */
+	private final ConcurrentHashMap<String, Long> rechazados = new ConcurrentHashMap<String, Long>() ;
+
+	/** Atributo - Generación de las claves públicas. Cambia al limpiar la caché, y las entradas de otra generación se ignoran */
+	private final AtomicLong generacion = new AtomicLong() ;
+
+	/** Atributo - Prototipo del resumen SHA-256, se clona en cada uso al no ser thread-safe */
+	private MessageDigest prototipoResumen ;
+
+	/**
+	 * Inicializa el prototipo del resumen
+	 * @throws NoSuchAlgorithmException si la JVM no soporta SHA-256
+	 */
+	@PostConstruct
+	public void init() throws NoSuchAlgorithmException
+	{
+		this.prototipoResumen = MessageDigest.getInstance("SHA-256") ;
+
+		log.info("Caché de usuarios verificados: máximo {} entradas y {} rechazados", this.maxEntradas, this.maxRechazados) ;
+	}
+
+	/**
+	 * @return true si la caché está habilitada
+	 */
+	public boolean isHabilitada()
+	{
+		return this.maxEntradas > 0 ;
+	}
+
+	/**
+	 * @return true si la caché de tokens rechazados está habilitada
+	 */
+	public boolean isRechazadosHabilitada()
+	{
+		return this.maxRechazados > 0 ;
+	}
+
+	/**
+	 * @return número de tokens verificados en caché
+	 */
+	public int getNumeroEntradas()
+	{
+		return this.entradas.size() ;
+	}
+
+	/**
+	 * @return número de tokens rechazados que se recuerdan
+	 */
+	public int getNumeroRechazados()
+	{
+		return this.rechazados.size() ;
+	}
+
+	/**
+	 * @return la generación actual de las claves públicas. Se lee antes de verificar un token, y el resultado se guarda
+	 * con ella para que una verificación que empezó con las claves anteriores no entre en la caché tras limpiarla
+	 */
+	public long getGeneracion()
+	{
+		return this.generacion.get() ;
+	}
+
+	/**
+	 * @param token token JWT
+	 * @return la clave de la caché para el token
+	 */
+	public String calcularClave(String token)
+	{
+		MessageDigest messageDigest = this.clonarResumen() ;
+
+		return Base64.getEncoder().encodeToString(messageDigest.digest(token.getBytes(StandardCharsets.US_ASCII))) ;
+	}
+
+	/**
+	 * @param clave clave calculada con {@link #calcularClave(String)}
+	 * @return el usuario verificado o null si no está o ha caducado
+	 */
+	public UsuarioVerificado obtener(String clave)
+	{
+		UsuarioVerificado usuarioVerificado = this.entradas.get(clave) ;
+
+		if (usuarioVerificado != null && (usuarioVerificado.getExpiracion() <= System.currentTimeMillis() ||
+										  usuarioVerificado.getGeneracionClaves() != this.generacion.get()))
+		{
+			// Ha caducado o se verificó con otras claves, así que la eliminamos
+			this.entradas.remove(clave, usuarioVerificado) ;
+			usuarioVerificado = null ;
+		}
+
+		return usuarioVerificado ;
+	}
+
+	/**
+	 * @param clave clave calculada con {@link #calcularClave(String)}
+	 * @param usuarioVerificado usuario verificado a guardar. Si se verificó con una generación de claves anterior, no se guarda
+	 */
+	public void guardar(String clave, UsuarioVerificado usuarioVerificado)
+	{
+		if (this.isHabilitada() && usuarioVerificado.getGeneracionClaves() == this.generacion.get())
+		{
+			if (this.entradas.size() >= this.maxEntradas)
+			{
+				this.purgarCaducadas() ;
+				this.recortar(this.entradas, this.maxEntradas) ;
+			}
+
+			this.entradas.put(clave, usuarioVerificado) ;
+
+			// Si se ha limpiado mientras tanto, la entrada ya es de una generación anterior
+			if (usuarioVerificado.getGeneracionClaves() != this.generacion.get())
+			{
+				this.entradas.remove(clave, usuarioVerificado) ;
+			}
+		}
+	}
+
+	/**
+	 * @param clave clave calculada con {@link #calcularClave(String)}
+	 * @return true si el token se rechazó hace menos del TTL de rechazados
+	 */
+	public boolean isRechazado(String clave)
+	{
+		Long hasta = this.rechazados.get(clave) ;
+
+		if (hasta != null && hasta <= System.currentTimeMillis())
+		{
+			this.rechazados.remove(clave, hasta) ;
+			hasta = null ;
+		}
+
+		return hasta != null ;
+	}
+
+	/**
+	 * @param clave clave calculada con {@link #calcularClave(String)} de un token que no ha superado la verificación
+	 * @param generacion generación de las claves con las que se verificó. Si es anterior a la actual, no se recuerda
+	 */
+	public void rechazar(String clave, long generacion)
+	{
+		if (this.isRechazadosHabilitada() && generacion == this.generacion.get())
+		{
+			if (this.rechazados.size() >= this.maxRechazados)
+			{
+				this.purgarCaducadas() ;
+				this.recortar(this.rechazados, this.maxRechazados) ;
+			}
+
+			Long hasta = System.currentTimeMillis() + this.ttlRechazadosSegundos * 1000L ;
+
+			this.rechazados.put(clave, hasta) ;
+
+			if (generacion != this.generacion.get())
+			{
+				this.rechazados.remove(clave, hasta) ;
+			}
+		}
+	}
+
+	/**
+	 * @param expiracionToken fecha de expiración del token en milisegundos o null si no tiene
+	 * @return instante de expiración de la entrada, acotado por el TTL máximo
+	 */
+	public long calcularExpiracion(Long expiracionToken)
+	{
+		long expiracionMaxima = System.currentTimeMillis() + this.ttlMaximoSegundos * 1000L ;
+
+		if (expiracionToken == null)
+		{
+			return expiracionMaxima ;
+		}
+
+		return Math.min(expiracionToken, expiracionMaxima) ;
+	}
+
+	/**
+	 * Vacía la caché, incluidos los tokens rechazados (con otras claves públicas podrían ser válidos)
+	 */
+	public void limpiar()
+	{
+		// Primero la generación, para que las verificaciones en curso con las claves anteriores ya no se guarden
+		this.generacion.incrementAndGet() ;
+
+		this.entradas.clear() ;
+		this.rechazados.clear() ;
+	}
+
+	/**
+	 * Elimina periódicamente las entradas caducadas
+	 */
+	@Scheduled(fixedDelayString = "${reaktor.jwtCache.purgaMillis:60000}")
+	public void purgarCaducadas()
+	{
+		long ahora = System.currentTimeMillis() ;
+
+		this.entradas.values().removeIf(usuarioVerificado -> usuarioVerificado.getExpiracion() <= ahora) ;
+		this.rechazados.values().removeIf(hasta -> hasta <= ahora) ;
+	}
+
+	/**
+	 * Libera espacio cuando una caché sigue llena tras purgar las caducadas, eliminando
+	 * entradas arbitrarias hasta quedarnos al 90% de la capacidad
+	 * 
+	 * @param mapa caché a recortar
+	 * @param maximo capacidad de la caché
+	 */
+	private void recortar(ConcurrentHashMap<String, ?> mapa, int maximo)
+	{
+		int objetivo = (maximo * 9) / 10 ;
+
+		Iterator<String> iterator = mapa.keySet().iterator() ;
+		while (mapa.size() > objetivo && iterator.hasNext())
+		{
+			iterator.next() ;
+			iterator.remove() ;
+		}
+	}
+
+	/**
+	 * @return una copia del prototipo de resumen SHA-256
+	 */
+	private MessageDigest clonarResumen()
+	{
+		try
+		{
+			return (MessageDigest) this.prototipoResumen.clone() ;
+		}
+		catch (CloneNotSupportedException cloneNotSupportedException)
+		{
+			try
+			{
+				return MessageDigest.getInstance(this.prototipoResumen.getAlgorithm()) ;
+			}
+			catch (NoSuchAlgorithmException noSuchAlgorithmException)
+			{
+				// No debería ocurrir, ya que el algoritmo se resolvió en el init
+				throw new IllegalStateException(noSuchAlgorithmException) ;
+			}
+		}
+	}
+}
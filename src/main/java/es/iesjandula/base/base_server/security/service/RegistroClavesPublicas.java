@@ -0,0 +1,650 @@
+package es.iesjandula.base.base_server.security.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.UnsupportedJwtException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Registro de claves públicas con las que se verifican los JWT. "reaktor.publicKeyFile" puede ser un fichero o un
+ * directorio con varios ficheros ".pem", cuyo nombre (sin extensión) es el "kid" de la clave. Dentro del directorio, los
+ * ".pem" de un subdirectorio son claves de un emisor concreto (el nombre del subdirectorio): un JWT firmado con ellas
+ * debe traer ese "iss". El registro vigila el fichero o directorio y, cuando cambia, sustituye todas las claves de forma
+ * atómica sin reiniciar el microservicio
+ */
+@Slf4j
+@Component
+public class RegistroClavesPublicas extends LocatorAdapter<Key>
+{
+	/** Extensión de los ficheros de claves públicas dentro de un directorio */
+	private static final String EXTENSION_PEM = ".pem" ;
+
+	/** Tiempo (en milisegundos) que esperamos a que terminen de escribirse los ficheros antes de recargar */
+	private static final long ESPERA_RECARGA_MILLIS = 500L ;
+
+	/** Cabecera del JWT con el emisor replicado (RFC 7519, 5.3) */
+	private static final String CABECERA_EMISOR = "iss" ;
+
+	/** Algoritmos de clave que se prueban, por orden, si no se configura ninguno: RSA (RS256), EC (ES256) y Ed25519 (EdDSA) */
+	private static final String[] ALGORITMOS_CLAVE = { "RSA", "EC", "Ed25519" } ;
+
+	@Value("${reaktor.publicKeyFile}")
+	private String baseServerPublicKeyFile ;
+
+	/** Kid de la clave con la que se verifican los JWT sin "kid" cuando hay varias claves */
+	@Value("${reaktor.publicKeyKidPorDefecto:}")
+	private String kidPorDefecto ;
+
+	/** Algoritmo de las claves ("RSA", "EC" o "Ed25519"). Si está vacío, se detecta a partir del propio PEM */
+	@Value("${reaktor.publicKeyAlgoritmo:}")
+	private String algoritmoClave ;
+
+	/** Si es true, se vigila el fichero o directorio de claves para recargarlas en caliente */
+	@Value("${reaktor.publicKeyVigilar:true}")
+	private boolean vigilar ;
+
+	@Autowired
+	private CacheUsuariosVerificados cacheUsuariosVerificados ;
+
+	/** Atributo - Claves en uso. Se sustituyen todas a la vez */
+	private final AtomicReference<ClavesPublicas> clavesPublicas = new AtomicReference<ClavesPublicas>() ;
+
+	/** Atributo - Servicio de vigilancia del sistema de ficheros */
+	private WatchService watchService ;
+
+	/**
+	 * Carga las claves y arranca la vigilancia
+	 * @throws BaseServerException con un error al leer las claves públicas
+	 */
+	@PostConstruct
+	public void init() throws BaseServerException
+	{
+		this.clavesPublicas.set(this.cargarClaves()) ;
+
+		if (this.vigilar)
+		{
+			this.arrancarVigilancia() ;
+		}
+	}
+
+	/**
+	 * Para la vigilancia del sistema de ficheros
+	 */
+	@PreDestroy
+	public void destroy()
+	{
+		if (this.watchService != null)
+		{
+			try
+			{
+				this.watchService.close() ;
+			}
+			catch (IOException ioException)
+			{
+				log.warn("IOException mientras se cerraba la vigilancia de las claves públicas", ioException) ;
+			}
+		}
+	}
+
+	/**
+	 * Busca la clave con la que verificar el JWT en O(1): por su "kid" o, si no lo trae, por el "iss" replicado en la
+	 * cabecera (RFC 7519, 5.3) y, si tampoco, la clave por defecto. Con un directorio de claves, un "kid" desconocido se
+	 * rechaza, para que un error al rotar las claves no parezca una firma incorrecta. Con un único fichero, el "kid" no
+	 * se tiene en cuenta
+	 *
+	 * @param jwsHeader cabecera del JWT
+	 * @return la clave pública con la que verificar la firma
+	 */
+	@Override
+	protected Key locate(JwsHeader jwsHeader)
+	{
+		ClavesPublicas actuales = this.clavesPublicas.get() ;
+		String kid 				= jwsHeader.getKeyId() ;
+		PublicKey publicKey 	= null ;
+
+		if (kid != null && actuales.indexadas)
+		{
+			publicKey = actuales.porKid.get(kid) ;
+
+			if (publicKey == null)
+			{
+				log.warn("JWT con un kid desconocido ({}), se rechaza. Las claves públicas cargadas son {}", kid, actuales.porKid.keySet()) ;
+
+				throw new UnsupportedJwtException("No hay ninguna clave pública para el kid " + kid) ;
+			}
+		}
+		else
+		{
+			Object emisor = jwsHeader.get(CABECERA_EMISOR) ;
+
+			publicKey = emisor == null ? null : actuales.porEmisor.get(emisor.toString()) ;
+
+			if (publicKey == null)
+			{
+				publicKey = actuales.porDefecto ;
+			}
+		}
+
+		if (publicKey == null)
+		{
+			throw new UnsupportedJwtException("No hay ninguna clave pública para el kid " + jwsHeader.getKeyId()) ;
+		}
+
+		return publicKey ;
+	}
+
+	/**
+	 * Comprueba, tras verificar la firma, que el "iss" del JWT es el del emisor al que pertenece la clave con la que se
+	 * ha verificado, para que la clave de un emisor no sirva para firmar tokens de otro
+	 *
+	 * @param jwsHeader cabecera del JWT
+	 * @param claims claims del JWT
+	 * @throws UnsupportedJwtException si el emisor no corresponde a la clave
+	 */
+	public void comprobarEmisor(JwsHeader jwsHeader, Claims claims)
+	{
+		ClavesPublicas actuales = this.clavesPublicas.get() ;
+		String emisorClave 		= null ;
+
+		if (jwsHeader.getKeyId() != null && actuales.indexadas)
+		{
+			emisorClave = actuales.emisorPorKid.get(jwsHeader.getKeyId()) ;
+		}
+		else if (jwsHeader.get(CABECERA_EMISOR) != null && actuales.porEmisor.containsKey(jwsHeader.get(CABECERA_EMISOR).toString()))
+		{
+			emisorClave = jwsHeader.get(CABECERA_EMISOR).toString() ;
+		}
+		else
+		{
+			// Verificado con la clave por defecto, que puede ser la de un emisor
+			emisorClave = actuales.emisorPorDefecto ;
+		}
+
+		if (emisorClave != null && !emisorClave.equals(claims.getIssuer()))
+		{
+			throw new UnsupportedJwtException("El emisor " + claims.getIssuer() + " del JWT no corresponde a su clave, que es de " + emisorClave) ;
+		}
+	}
+
+	/**
+	 * @return las claves públicas en uso
+	 */
+	public Collection<PublicKey> getClavesPublicas()
+	{
+		return this.clavesPublicas.get().porKid.values() ;
+	}
+
+	/**
+	 * Vuelve a cargar las claves. Si alguna no se puede leer, se mantienen las anteriores
+	 */
+	public void recargar()
+	{
+		try
+		{
+			this.clavesPublicas.set(this.cargarClaves()) ;
+
+			// Los tokens verificados con las claves anteriores tienen que volver a verificarse
+			this.cacheUsuariosVerificados.limpiar() ;
+		}
+		catch (BaseServerException baseServerException)
+		{
+			log.error("No se han podido recargar las claves públicas, se mantienen las anteriores") ;
+		}
+	}
+
+	/**
+	 * @return las claves leídas del fichero o directorio configurado
+	 * @throws BaseServerException con un error al leer alguna de las claves
+	 */
+	private ClavesPublicas cargarClaves() throws BaseServerException
+	{
+		Path ruta = Paths.get(this.baseServerPublicKeyFile) ;
+
+		Map<String, PublicKey> porKid 	 = new HashMap<String, PublicKey>() ;
+		Map<String, String> emisorPorKid = new HashMap<String, String>() ;
+		Map<String, PublicKey> porEmisor = new HashMap<String, PublicKey>() ;
+		PublicKey porDefecto 			 = null ;
+		String emisorPorDefecto 		 = null ;
+		boolean indexadas 				 = Files.isDirectory(ruta) ;
+
+		if (indexadas)
+		{
+			// Las claves sin emisor están en el propio directorio, y las de cada emisor en su subdirectorio
+			this.cargarDirectorio(ruta, null, porKid, emisorPorKid) ;
+
+			for (Path subdirectorio : this.listarSubdirectorios(ruta))
+			{
+				String emisor 					  = subdirectorio.getFileName().toString() ;
+				Map<String, PublicKey> delEmisor = this.cargarDirectorio(subdirectorio, emisor, porKid, emisorPorKid) ;
+
+				String kidPorDefectoEmisor = this.elegirKidPorDefecto(delEmisor) ;
+				if (kidPorDefectoEmisor != null)
+				{
+					porEmisor.put(emisor, delEmisor.get(kidPorDefectoEmisor)) ;
+				}
+			}
+
+			// La clave por defecto es la configurada o, si solo hay una, esa misma, y conserva el emisor de su subdirectorio
+			String kidPorDefecto = this.elegirKidPorDefecto(porKid) ;
+			if (kidPorDefecto != null)
+			{
+				porDefecto 		 = porKid.get(kidPorDefecto) ;
+				emisorPorDefecto = emisorPorKid.get(kidPorDefecto) ;
+			}
+		}
+		else
+		{
+			porDefecto = this.obtenerClavePublica(ruta) ;
+
+			porKid.put(this.obtenerKid(ruta), porDefecto) ;
+		}
+
+		log.info("Claves públicas cargadas desde {}: {}{}", ruta, porKid.keySet(), emisorPorKid.isEmpty() ? "" : ", con emisor " + emisorPorKid) ;
+
+		return new ClavesPublicas(Collections.unmodifiableMap(porKid), Collections.unmodifiableMap(emisorPorKid),
+								  Collections.unmodifiableMap(porEmisor), porDefecto, emisorPorDefecto, indexadas) ;
+	}
+
+	/**
+	 * @param directorio directorio con ficheros ".pem"
+	 * @param emisor emisor de las claves del directorio, o null si no tienen
+	 * @param porKid claves por kid, donde se añaden las del directorio
+	 * @param emisorPorKid emisores por kid, donde se añaden los de las claves del directorio
+	 * @return las claves del directorio por kid
+	 * @throws BaseServerException con un error al leer alguna de las claves o con un kid repetido
+	 */
+	private Map<String, PublicKey> cargarDirectorio(Path directorio, String emisor, Map<String, PublicKey> porKid,
+													Map<String, String> emisorPorKid) throws BaseServerException
+	{
+		Map<String, PublicKey> outcome = new HashMap<String, PublicKey>() ;
+
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directorio, "*" + EXTENSION_PEM))
+		{
+			for (Path fichero : directoryStream)
+			{
+				String kid = this.obtenerKid(fichero) ;
+
+				// El kid identifica la clave en todo el registro, así que no puede repetirse entre emisores
+				if (porKid.containsKey(kid))
+				{
+					String errorString = "El kid " + kid + " de " + fichero + " está repetido en el directorio de claves públicas" ;
+
+					log.error(errorString) ;
+					throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString) ;
+				}
+
+				PublicKey publicKey = this.obtenerClavePublica(fichero) ;
+
+				outcome.put(kid, publicKey) ;
+				porKid.put(kid, publicKey) ;
+
+				if (emisor != null)
+				{
+					emisorPorKid.put(kid, emisor) ;
+				}
+			}
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException mientras se listaba el directorio de claves públicas " + directorio ;
+
+			log.error(errorString, ioException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, ioException) ;
+		}
+
+		return outcome ;
+	}
+
+	/**
+	 * @param directorio directorio de claves
+	 * @return los subdirectorios (uno por emisor)
+	 * @throws BaseServerException con un error al listar el directorio
+	 */
+	private List<Path> listarSubdirectorios(Path directorio) throws BaseServerException
+	{
+		List<Path> outcome = new ArrayList<Path>() ;
+
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directorio, Files::isDirectory))
+		{
+			directoryStream.forEach(outcome::add) ;
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException mientras se listaba el directorio de claves públicas " + directorio ;
+
+			log.error(errorString, ioException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, ioException) ;
+		}
+
+		return outcome ;
+	}
+
+	/**
+	 * @param claves claves por kid
+	 * @return el kid por defecto configurado, el de la única clave si solo hay una o null en otro caso
+	 */
+	private String elegirKidPorDefecto(Map<String, PublicKey> claves)
+	{
+		if (!this.kidPorDefecto.isEmpty() && claves.containsKey(this.kidPorDefecto))
+		{
+			return this.kidPorDefecto ;
+		}
+
+		return claves.size() == 1 ? claves.keySet().iterator().next() : null ;
+	}
+
+	/**
+	 * @param fichero fichero de clave pública
+	 * @return el kid asociado al fichero (su nombre sin extensión)
+	 */
+	private String obtenerKid(Path fichero)
+	{
+		String nombre = fichero.getFileName().toString() ;
+		int punto 	  = nombre.lastIndexOf('.') ;
+
+		return punto > 0 ? nombre.substring(0, punto) : nombre ;
+	}
+
+	/**
+	 * @param fichero fichero de clave pública
+	 * @return la clave pública
+	 * @throws BaseServerException con un error
+	 */
+	private PublicKey obtenerClavePublica(Path fichero) throws BaseServerException
+	{
+		try
+		{
+		    // Lee el contenido del archivo de clave pública ('public_key.pem') y lo convierte a una cadena (String)
+		    String publicKeyContent = new String(Files.readAllBytes(fichero));
+
+		    // Elimina los saltos de línea (\n) y las etiquetas de inicio y fin de la clave pública
+		    publicKeyContent = publicKeyContent.replaceAll("\\n", "") // Elimina todos los saltos de línea
+					 						   .replaceAll("\\r", "")
+									           .replace("-----BEGIN PUBLIC KEY-----", "")        // Elimina la etiqueta de inicio de la clave pública
+									           .replace("-----END PUBLIC KEY-----", "") ;        // Elimina la etiqueta de fin de la clave pública
+
+		    // Crea una especificación de clave pública X509 a partir de la cadena decodificada en Base64
+		    X509EncodedKeySpec keySpec = new X509EncodedKeySpec(Base64.getDecoder().decode(publicKeyContent)) ;
+
+		    // Genera una instancia de PublicKey con el algoritmo configurado o con el que corresponda al PEM
+		    PublicKey publicKey = this.algoritmoClave.isEmpty() ? this.detectarClavePublica(keySpec) :
+		    													  KeyFactory.getInstance(this.algoritmoClave).generatePublic(keySpec) ;
+
+		    log.debug("Clave pública {} cargada desde {}", publicKey.getAlgorithm(), fichero) ;
+
+		    return publicKey ;
+		}
+		catch (IOException ioException)
+		{
+			String errorString = "IOException mientras se cargaba el fichero con la clave pública " + fichero ;
+
+			log.error(errorString, ioException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, ioException) ;
+		}
+		catch (InvalidKeySpecException | IllegalArgumentException invalidKeySpecException)
+		{
+			String errorString = "InvalidKeySpecException mientras se cargaba el fichero con la clave pública " + fichero ;
+
+			log.error(errorString, invalidKeySpecException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, invalidKeySpecException) ;
+		}
+		catch (NoSuchAlgorithmException noSuchAlgorithmException)
+		{
+			String errorString = "NoSuchAlgorithmException mientras se cargaba el fichero con la clave pública " + fichero ;
+
+			log.error(errorString, noSuchAlgorithmException) ;
+			throw new BaseServerException(BaseServerConstants.ERR_GETTING_PUBLIC_KEY, errorString, noSuchAlgorithmException) ;
+		}
+	}
+
+	/**
+	 * La estructura X.509 del PEM incluye el algoritmo de la clave, así que solo la acepta el KeyFactory que le corresponde.
+	 * Se prueban por orden, y solo al cargar las claves, por lo que no afecta a la verificación de los JWT
+	 *
+	 * @param keySpec especificación X.509 de la clave pública
+	 * @return la clave pública RSA, EC o Ed25519
+	 * @throws InvalidKeySpecException si ningún algoritmo reconoce la clave
+	 */
+	private PublicKey detectarClavePublica(X509EncodedKeySpec keySpec) throws InvalidKeySpecException
+	{
+		InvalidKeySpecException invalidKeySpecException = new InvalidKeySpecException("La clave pública no es " + String.join(", ", ALGORITMOS_CLAVE)) ;
+
+		for (String algoritmo : ALGORITMOS_CLAVE)
+		{
+			try
+			{
+				return KeyFactory.getInstance(algoritmo).generatePublic(keySpec) ;
+			}
+			catch (InvalidKeySpecException | NoSuchAlgorithmException exception)
+			{
+				invalidKeySpecException.addSuppressed(exception) ;
+			}
+		}
+
+		throw invalidKeySpecException ;
+	}
+
+	/**
+	 * Arranca un hilo demonio que vigila el directorio de claves (o el directorio del fichero de clave)
+	 */
+	private void arrancarVigilancia()
+	{
+		Path ruta 		   = Paths.get(this.baseServerPublicKeyFile).toAbsolutePath() ;
+		Path directorio    = Files.isDirectory(ruta) ? ruta : ruta.getParent() ;
+
+		try
+		{
+			this.watchService = FileSystems.getDefault().newWatchService() ;
+
+			this.registrarDirectorios(directorio, Files.isDirectory(ruta)) ;
+		}
+		catch (IOException ioException)
+		{
+			log.warn("No se puede vigilar el directorio {}, las claves públicas no se recargarán en caliente", directorio, ioException) ;
+			return ;
+		}
+
+		Thread thread = new Thread(() -> this.vigilar(ruta), "reaktor-claves-publicas") ;
+		thread.setDaemon(true) ;
+		thread.start() ;
+
+		log.info("Vigilando {} para recargar las claves públicas en caliente", directorio) ;
+	}
+
+	/**
+	 * Bucle de vigilancia: recarga las claves cuando cambia algún fichero relevante
+	 * @param ruta fichero o directorio de claves
+	 */
+	private void vigilar(Path ruta)
+	{
+		boolean esDirectorio = Files.isDirectory(ruta) ;
+
+		try
+		{
+			while (true)
+			{
+				WatchKey watchKey = this.watchService.take() ;
+
+				// Agrupamos las ráfagas de eventos (por ejemplo, un fichero que se escribe en varios pasos)
+				boolean relevante = this.esRelevante(watchKey, ruta, esDirectorio) ;
+
+				WatchKey siguiente = this.watchService.poll(ESPERA_RECARGA_MILLIS, TimeUnit.MILLISECONDS) ;
+				while (siguiente != null)
+				{
+					relevante = this.esRelevante(siguiente, ruta, esDirectorio) || relevante ;
+					siguiente = this.watchService.poll(ESPERA_RECARGA_MILLIS, TimeUnit.MILLISECONDS) ;
+				}
+
+				if (relevante)
+				{
+					log.info("Detectado un cambio en las claves públicas, recargando...") ;
+
+					this.recargar() ;
+
+					// Los subdirectorios de emisores nuevos también se vigilan
+					this.registrarDirectorios(ruta.toAbsolutePath(), esDirectorio) ;
+				}
+			}
+		}
+		catch (InterruptedException interruptedException)
+		{
+			Thread.currentThread().interrupt() ;
+		}
+		catch (ClosedWatchServiceException closedWatchServiceException)
+		{
+			// Se ha parado el contexto de Spring
+		}
+		catch (IOException ioException)
+		{
+			log.warn("IOException mientras se vigilaban los subdirectorios de claves públicas, ya no se recargarán en caliente", ioException) ;
+		}
+	}
+
+	/**
+	 * @param directorio directorio a vigilar
+	 * @param conSubdirectorios true si también se vigilan sus subdirectorios (los de los emisores)
+	 * @throws IOException con un error al registrar algún directorio
+	 */
+	private void registrarDirectorios(Path directorio, boolean conSubdirectorios) throws IOException
+	{
+		List<Path> directorios = new ArrayList<Path>() ;
+		directorios.add(directorio) ;
+
+		if (conSubdirectorios)
+		{
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directorio, Files::isDirectory))
+			{
+				directoryStream.forEach(directorios::add) ;
+			}
+		}
+
+		// Registrar de nuevo un directorio ya vigilado no tiene efecto
+		for (Path vigilado : directorios)
+		{
+			vigilado.register(this.watchService,
+							  StandardWatchEventKinds.ENTRY_CREATE,
+							  StandardWatchEventKinds.ENTRY_MODIFY,
+							  StandardWatchEventKinds.ENTRY_DELETE) ;
+		}
+	}
+
+	/**
+	 * @param watchKey clave con los eventos
+	 * @param ruta fichero o directorio de claves
+	 * @param esDirectorio true si la ruta es un directorio
+	 * @return true si alguno de los eventos afecta a las claves
+	 */
+	private boolean esRelevante(WatchKey watchKey, Path ruta, boolean esDirectorio)
+	{
+		boolean relevante = false ;
+
+		for (WatchEvent<?> watchEvent : watchKey.pollEvents())
+		{
+			if (watchEvent.context() instanceof Path)
+			{
+				Path fichero = (Path) watchEvent.context() ;
+
+				// En un directorio, también cuentan los subdirectorios de emisores que se crean o se borran
+				relevante = relevante || (esDirectorio ? fichero.toString().endsWith(EXTENSION_PEM) || this.esSubdirectorio(watchKey, watchEvent, fichero) :
+														 fichero.equals(ruta.getFileName())) ;
+			}
+		}
+
+		watchKey.reset() ;
+
+		return relevante ;
+	}
+
+	/**
+	 * @param watchKey clave con los eventos
+	 * @param watchEvent evento
+	 * @param fichero nombre del fichero del evento
+	 * @return true si el evento es de un subdirectorio que se crea o se borra en el directorio de claves
+	 */
+	private boolean esSubdirectorio(WatchKey watchKey, WatchEvent<?> watchEvent, Path fichero)
+	{
+		return watchEvent.kind() == StandardWatchEventKinds.ENTRY_DELETE && !fichero.toString().contains(".") ||
+			   watchEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(((Path) watchKey.watchable()).resolve(fichero)) ;
+	}
+
+	/**
+	 * Conjunto inmutable de claves en uso
+	 */
+	private static final class ClavesPublicas
+	{
+		/** Atributo - claves por kid */
+		private final Map<String, PublicKey> porKid ;
+
+		/** Atributo - emisor de cada kid (solo las claves de los subdirectorios) */
+		private final Map<String, String> emisorPorKid ;
+
+		/** Atributo - clave por defecto de cada emisor, para los JWT sin kid que replican "iss" en la cabecera */
+		private final Map<String, PublicKey> porEmisor ;
+
+		/** Atributo - clave para los JWT sin kid (puede ser null) */
+		private final PublicKey porDefecto ;
+
+		/** Atributo - emisor de la clave por defecto (null si no está en el subdirectorio de un emisor) */
+		private final String emisorPorDefecto ;
+
+		/** Atributo - true si las claves vienen de un directorio, indexadas por kid */
+		private final boolean indexadas ;
+
+		/**
+		 * @param porKid claves por kid
+		 * @param emisorPorKid emisor de cada kid
+		 * @param porEmisor clave por defecto de cada emisor
+		 * @param porDefecto clave para los JWT sin kid
+		 * @param emisorPorDefecto emisor de la clave por defecto
+		 * @param indexadas true si las claves vienen de un directorio
+		 */
+		private ClavesPublicas(Map<String, PublicKey> porKid, Map<String, String> emisorPorKid, Map<String, PublicKey> porEmisor,
+							   PublicKey porDefecto, String emisorPorDefecto, boolean indexadas)
+		{
+			this.porKid 		  = porKid ;
+			this.emisorPorKid 	  = emisorPorKid ;
+			this.porEmisor 		  = porEmisor ;
+			this.porDefecto 	  = porDefecto ;
+			this.emisorPorDefecto = emisorPorDefecto ;
+			this.indexadas 	  	  = indexadas ;
+		}
+	}
+}
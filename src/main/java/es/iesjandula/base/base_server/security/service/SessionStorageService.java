@@ -2,21 +2,28 @@ package es.iesjandula.base.base_server.security.service;
 
 import org.springframework.stereotype.Component;
 
+import es.iesjandula.base.base_server.security.models.TokenPersonalizado;
+
 /**
  * @author Francisco Manuel Benítez Chico
+ * 
+ * Almacena el token personalizado de forma segura entre hilos: el token y su expiración se publican
+ * juntos en una única referencia volatile, de manera que ningún hilo puede ver uno sin el otro
  */
 @Component
 public class SessionStorageService
 {
-	/** Atributo - Token JWT */
-	private String tokenJwt ;
+	/** Atributo - Token JWT junto con su expiración */
+	private volatile TokenPersonalizado tokenPersonalizado ;
 
 	/**
 	 * @return token JWT
 	 */
 	public String getToken()
 	{
-		return this.tokenJwt ;
+		TokenPersonalizado actual = this.tokenPersonalizado ;
+		
+		return actual == null ? null : actual.getToken() ;
 	}
 
 	/**
@@ -24,6 +31,22 @@ public class SessionStorageService
 	 */
 	public void setToken(String tokenJwt)
 	{
-		this.tokenJwt = tokenJwt ;
+		this.tokenPersonalizado = tokenJwt == null ? null : new TokenPersonalizado(tokenJwt, TokenPersonalizado.EXPIRACION_DESCONOCIDA) ;
+	}
+	
+	/**
+	 * @return token JWT junto con su expiración
+	 */
+	public TokenPersonalizado getTokenPersonalizado()
+	{
+		return this.tokenPersonalizado ;
+	}
+	
+	/**
+	 * @param tokenPersonalizado token JWT junto con su expiración
+	 */
+	public void setTokenPersonalizado(TokenPersonalizado tokenPersonalizado)
+	{
+		this.tokenPersonalizado = tokenPersonalizado ;
 	}
 }
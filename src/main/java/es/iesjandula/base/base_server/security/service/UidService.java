@@ -0,0 +1,66 @@
+package es.iesjandula.base.base_server.security.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Mantiene en memoria el UID del fichero "reaktor.uidFile" y solo lo vuelve a leer cuando el fichero cambia
+ */
+@Component
+public class UidService
+{
+	@Value("${reaktor.uidFile}")
+	private String uidFile ;
+	
+	/** Atributo - UID leído junto con la fecha de modificación del fichero cuando se leyó */
+	private volatile UidLeido uidLeido ;
+	
+	/**
+	 * @return el UID del fichero, leído de disco solo si ha cambiado desde la última vez
+	 * @throws IOException con un error al leer el fichero
+	 */
+	public String obtenerUid() throws IOException
+	{
+		Path path 			   = Paths.get(this.uidFile) ;
+		FileTime modificacion  = Files.getLastModifiedTime(path) ;
+		UidLeido actual 	   = this.uidLeido ;
+		
+		if (actual == null || !actual.modificacion.equals(modificacion))
+		{
+			actual 		  = new UidLeido(Files.readString(path).trim(), modificacion) ;
+			this.uidLeido = actual ;
+		}
+		
+		return actual.uid ;
+	}
+	
+	/**
+	 * UID leído y fecha de modificación del fichero, que se publican juntos
+	 */
+	private static final class UidLeido
+	{
+		/** Atributo - UID */
+		private final String uid ;
+		
+		/** Atributo - fecha de modificación del fichero */
+		private final FileTime modificacion ;
+		
+		/**
+		 * @param uid UID
+		 * @param modificacion fecha de modificación del fichero
+		 */
+		private UidLeido(String uid, FileTime modificacion)
+		{
+			this.uid 		  = uid ;
+			this.modificacion = modificacion ;
+		}
+	}
+}
@@ -34,6 +34,9 @@ public class BaseServerConstants
 	/** Error - Error usuario no autenticado - Mensaje */
 	public static final String ERR_USER_NOT_AUTHENTICATED_MSG   = "Usuario no autenticado" ;
 	
+	/** Error - Patrón de ruta pública no válido */
+	public static final int ERR_INVALID_PUBLIC_ROUTE 			= 5 ;
+	
 	
 	/*********************************************************/
 	/**************** Colección - Usuarios *******************/
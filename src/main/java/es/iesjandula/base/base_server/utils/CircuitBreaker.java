@@ -0,0 +1,166 @@
+package es.iesjandula.base.base_server.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Circuit breaker con espera exponencial y jitter. Tras "umbralFallos" fallos consecutivos, el circuito se abre y las
+ * peticiones fallan al instante. Pasada la espera, se deja pasar una única petición de prueba: si va bien, el circuito
+ * se cierra; si falla, se vuelve a abrir con el doble de espera (hasta el máximo). La espera real es aleatoria entre la
+ * mitad y el total, para que los microservicios no reintenten todos a la vez
+ */
+public class CircuitBreaker
+{
+	/** Estado - Cerrado: las peticiones pasan */
+	public static final String ESTADO_CERRADO 	 = "CERRADO" ;
+
+	/** Estado - Abierto: las peticiones fallan al instante */
+	public static final String ESTADO_ABIERTO 	 = "ABIERTO" ;
+
+	/** Estado - Semiabierto: se permite una petición de prueba */
+	public static final String ESTADO_SEMIABIERTO = "SEMIABIERTO" ;
+
+	/** Atributo - fallos consecutivos que abren el circuito */
+	private final int umbralFallos ;
+
+	/** Atributo - espera (en milisegundos) de la primera apertura */
+	private final long esperaBaseMillis ;
+
+	/** Atributo - espera máxima (en milisegundos) */
+	private final long esperaMaximaMillis ;
+
+	/** Atributo - bloqueo para modificar el estado */
+	private final ReentrantLock bloqueo = new ReentrantLock() ;
+
+	/** Atributo - fallos consecutivos con el circuito cerrado */
+	private int fallosConsecutivos ;
+
+	/** Atributo - aperturas consecutivas, para calcular la espera exponencial */
+	private int aperturasConsecutivas ;
+
+	/** Atributo - true si hay una petición de prueba en curso */
+	private boolean pruebaEnCurso ;
+
+	/** Atributo - instante (en milisegundos) hasta el que el circuito está abierto, 0 si está cerrado */
+	private volatile long abiertoHasta ;
+
+	/**
+	 * @param umbralFallos fallos consecutivos que abren el circuito
+	 * @param esperaBaseMillis espera (en milisegundos) de la primera apertura
+	 * @param esperaMaximaMillis espera máxima (en milisegundos)
+	 */
+	public CircuitBreaker(int umbralFallos, long esperaBaseMillis, long esperaMaximaMillis)
+	{
+		this.umbralFallos 		= Math.max(1, umbralFallos) ;
+		this.esperaBaseMillis 	= Math.max(1L, esperaBaseMillis) ;
+		this.esperaMaximaMillis = Math.max(this.esperaBaseMillis, esperaMaximaMillis) ;
+	}
+
+	/**
+	 * @return true si la petición puede hacerse, false si debe fallar al instante
+	 */
+	public boolean permitirPeticion()
+	{
+		// Camino rápido: circuito cerrado
+		if (this.abiertoHasta == 0L)
+		{
+			return true ;
+		}
+
+		this.bloqueo.lock() ;
+		try
+		{
+			if (this.abiertoHasta == 0L)
+			{
+				return true ;
+			}
+
+			// Pasada la espera, dejamos pasar una única petición de prueba
+			if (System.currentTimeMillis() >= this.abiertoHasta && !this.pruebaEnCurso)
+			{
+				this.pruebaEnCurso = true ;
+				return true ;
+			}
+
+			return false ;
+		}
+		finally
+		{
+			this.bloqueo.unlock() ;
+		}
+	}
+
+	/**
+	 * Registra una petición correcta, que cierra el circuito
+	 */
+	public void registrarExito()
+	{
+		this.bloqueo.lock() ;
+		try
+		{
+			this.fallosConsecutivos 	= 0 ;
+			this.aperturasConsecutivas  = 0 ;
+			this.pruebaEnCurso 			= false ;
+			this.abiertoHasta 			= 0L ;
+		}
+		finally
+		{
+			this.bloqueo.unlock() ;
+		}
+	}
+
+	/**
+	 * Registra una petición fallida, que puede abrir (o reabrir) el circuito
+	 */
+	public void registrarFallo()
+	{
+		this.bloqueo.lock() ;
+		try
+		{
+			this.fallosConsecutivos++ ;
+
+			if (this.pruebaEnCurso || this.fallosConsecutivos >= this.umbralFallos)
+			{
+				this.aperturasConsecutivas++ ;
+
+				// Espera exponencial acotada, con jitter entre la mitad y el total
+				long espera = this.esperaBaseMillis << Math.min(this.aperturasConsecutivas - 1, 30) ;
+				espera 		= Math.min(espera, this.esperaMaximaMillis) ;
+				espera 		= espera / 2 + ThreadLocalRandom.current().nextLong(espera / 2 + 1) ;
+
+				this.fallosConsecutivos = 0 ;
+				this.pruebaEnCurso 		= false ;
+				this.abiertoHasta 		= System.currentTimeMillis() + espera ;
+			}
+		}
+		finally
+		{
+			this.bloqueo.unlock() ;
+		}
+	}
+
+	/**
+	 * @return el estado del circuito
+	 */
+	public String getEstado()
+	{
+		long hasta = this.abiertoHasta ;
+
+		if (hasta == 0L)
+		{
+			return ESTADO_CERRADO ;
+		}
+
+		return System.currentTimeMillis() < hasta ? ESTADO_ABIERTO : ESTADO_SEMIABIERTO ;
+	}
+
+	/**
+	 * @return instante (en milisegundos) hasta el que el circuito está abierto, 0 si está cerrado
+	 */
+	public long getAbiertoHasta()
+	{
+		return this.abiertoHasta ;
+	}
+}
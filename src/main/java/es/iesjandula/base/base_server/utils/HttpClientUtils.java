@@ -10,18 +10,27 @@ import org.apache.http.impl.client.HttpClients;
 public class HttpClientUtils
 {
 	/**
-     * Creamos un HttpClient con configuración de timeout
+     * Creamos un HttpClient con configuración de timeout. Cada llamada crea un cliente (y un pool) nuevo,
+     * por lo que es preferible usar el cliente compartido "baseServerHttpClient" junto con {@link #crearRequestConfig(int)}
      * @param timeout timeout
      * @return CloseableHttpClient configurado
      */
     public static CloseableHttpClient crearHttpClientConTimeout(int timeout)
     {
-        RequestConfig config = RequestConfig.custom()
-								            .setConnectTimeout(timeout)
-								            .setConnectionRequestTimeout(timeout)
-								            .setSocketTimeout(timeout)
-								            .build() ;
-
-        return HttpClients.custom().setDefaultRequestConfig(config).build() ;
+        return HttpClients.custom().setDefaultRequestConfig(HttpClientUtils.crearRequestConfig(timeout)).build() ;
+    }
+    
+    /**
+     * Creamos una configuración de timeout para aplicarla a una petición concreta con "setConfig"
+     * @param timeout timeout
+     * @return RequestConfig configurado
+     */
+    public static RequestConfig crearRequestConfig(int timeout)
+    {
+        return RequestConfig.custom()
+				            .setConnectTimeout(timeout)
+				            .setConnectionRequestTimeout(timeout)
+				            .setSocketTimeout(timeout)
+				            .build() ;
     }
 }
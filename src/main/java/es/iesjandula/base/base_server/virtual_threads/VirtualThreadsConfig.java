@@ -0,0 +1,71 @@
+package es.iesjandula.base.base_server.virtual_threads;
+
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorBuilder;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorCustomizer;
+import org.springframework.boot.task.SimpleAsyncTaskSchedulerBuilder;
+import org.springframework.boot.task.SimpleAsyncTaskSchedulerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ * 
+ * Perfil de ejecución "virtual-threads" (opcional). Con él activo (spring.profiles.active=virtual-threads), las
+ * peticiones de Tomcat, los métodos @Async y las tareas @Scheduled (como JarUpdateService.checkJarUpdate o la renovación
+ * del token personalizado) se ejecutan en hilos virtuales. Así, los microservicios que pasan la mayor parte del tiempo
+ * bloqueados (FirebaseServer, impresoras, base de datos) no quedan limitados por el tamaño del pool de hilos de Tomcat.
+ * 
+ * El código de BaseServer que bloquea usa ReentrantLock en vez de synchronized para no anclar el hilo virtual a su hilo portador
+ */
+@Slf4j
+@Configuration
+@Profile(VirtualThreadsConfig.PERFIL)
+public class VirtualThreadsConfig
+{
+	/** Nombre del perfil */
+	public static final String PERFIL = "virtual-threads" ;
+	
+	/**
+	 * @return personalizador que hace que Tomcat atienda cada petición en un hilo virtual
+	 */
+	@Bean
+	public TomcatProtocolHandlerCustomizer<?> reaktorVirtualThreadsProtocolHandlerCustomizer()
+	{
+		log.info("Perfil {}: Tomcat atenderá las peticiones en hilos virtuales", PERFIL) ;
+		
+		return protocolHandler -> protocolHandler.setExecutor(new VirtualThreadExecutor("reaktor-tomcat-")) ;
+	}
+	
+	/**
+	 * @return ejecutor de los métodos @Async en hilos virtuales
+	 */
+	@Bean(name = { "applicationTaskExecutor", "taskExecutor" })
+	public SimpleAsyncTaskExecutor applicationTaskExecutor(ObjectProvider<SimpleAsyncTaskExecutorCustomizer> customizers)
+	{
+		// Los personalizadores aplican, por ejemplo, la espera a las tareas en curso al parar (DrenajeConfig)
+		return new SimpleAsyncTaskExecutorBuilder().customizers(customizers.orderedStream()::iterator)
+												   .virtualThreads(true)
+												   .threadNamePrefix("reaktor-async-")
+												   .build() ;
+	}
+	
+	/**
+	 * @return planificador de las tareas @Scheduled en hilos virtuales
+	 */
+	@Bean
+	public SimpleAsyncTaskScheduler taskScheduler(ObjectProvider<SimpleAsyncTaskSchedulerCustomizer> customizers)
+	{
+		return new SimpleAsyncTaskSchedulerBuilder().customizers(customizers.orderedStream()::iterator)
+													.virtualThreads(true)
+													.threadNamePrefix("reaktor-scheduling-")
+													.build() ;
+	}
+}
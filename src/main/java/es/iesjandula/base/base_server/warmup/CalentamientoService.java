@@ -0,0 +1,322 @@
+package es.iesjandula.base.base_server.warmup;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import es.iesjandula.base.base_server.http_client.HttpClientConfig;
+import es.iesjandula.base.base_server.security.service.AuthorizationService;
+import es.iesjandula.base.base_server.security.service.CacheUsuariosVerificados;
+import es.iesjandula.base.base_server.security.service.RegistroClavesPublicas;
+import es.iesjandula.base.base_server.utils.BaseServerConstants;
+import es.iesjandula.base.base_server.utils.BaseServerException;
+import es.iesjandula.base.base_server.utils.HttpClientUtils;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Francisco Manuel Benítez Chico
+ *
+ * Calentamiento opcional (reaktor.calentamiento.habilitado) tras cada arranque, para que las primeras peticiones después de
+ * un despliegue de JarUpdateService no paguen el JIT, JJWT, Jackson y la cadena de Spring Security en frío. Spring Boot
+ * ejecuta los ApplicationRunner antes de publicar la disponibilidad (readiness), así que el microservicio no se anuncia
+ * como listo hasta que termina:
+ *
+ * 1. Parser: firma y verifica tokens sintéticos con claves efímeras del mismo algoritmo y tamaño que las configuradas
+ * 2. Cadena de filtros: hace peticiones HTTP al propio microservicio, con y sin token sintético. Como el token no está
+ *    firmado con la clave real, se rechaza, pero se verifica su firma con el parser real
+ * 3. Token personalizado: lo pide a FirebaseServer para que la primera petición ya lo tenga en "sesión"
+ *
+ * Al terminar se vacía la caché de tokens verificados y rechazados, para no dejar rastro de los tokens sintéticos
+ */
+@Slf4j
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CalentamientoService implements ApplicationRunner
+{
+	/** Número de tokens sintéticos distintos, para que no todas las peticiones acierten en la caché de rechazados */
+	private static final int TOKENS_SINTETICOS = 50 ;
+
+	/** Si es true, se calienta el microservicio antes de declararlo listo */
+	@Value("${reaktor.calentamiento.habilitado:false}")
+	private boolean habilitado ;
+
+	/** Verificaciones de tokens sintéticos con el parser */
+	@Value("${reaktor.calentamiento.iteraciones:2000}")
+	private int iteraciones ;
+
+	/** Peticiones HTTP al propio microservicio */
+	@Value("${reaktor.calentamiento.peticiones:200}")
+	private int peticiones ;
+
+	/** Ruta (sin el context path) de las peticiones HTTP al propio microservicio */
+	@Value("${reaktor.calentamiento.ruta:/}")
+	private String ruta ;
+
+	/** Si es true, se pide el token personalizado a FirebaseServer */
+	@Value("${reaktor.calentamiento.tokenPersonalizado:true}")
+	private boolean tokenPersonalizado ;
+
+	/** Tiempo máximo (en segundos) del calentamiento. Pasado este tiempo se da por terminado */
+	@Value("${reaktor.calentamiento.maxSegundos:30}")
+	private long maxSegundos ;
+
+	/** Timeout (en milisegundos) de cada petición HTTP del calentamiento */
+	@Value("${reaktor.calentamiento.timeoutMillis:5000}")
+	private int timeoutMillis ;
+
+	@Autowired
+	private AuthorizationService authorizationService ;
+
+	@Autowired
+	private RegistroClavesPublicas registroClavesPublicas ;
+
+	@Autowired
+	private CacheUsuariosVerificados cacheUsuariosVerificados ;
+
+	@Autowired
+	@Qualifier(HttpClientConfig.BEAN_HTTP_CLIENT)
+	private CloseableHttpClient baseServerHttpClient ;
+
+	@Autowired
+	private Environment environment ;
+
+	/**
+	 * Ejecuta el calentamiento, si está habilitado. Ningún error impide el arranque
+	 * @param applicationArguments argumentos de la aplicación
+	 */
+	@Override
+	public void run(ApplicationArguments applicationArguments)
+	{
+		if (!this.habilitado)
+		{
+			return ;
+		}
+
+		long inicio = System.nanoTime() ;
+		long limite = inicio + TimeUnit.SECONDS.toNanos(this.maxSegundos) ;
+
+		log.info("Calentando el microservicio antes de declararlo listo...") ;
+
+		try
+		{
+			List<String> tokens = this.calentarParser(limite) ;
+
+			this.calentarCadenaFiltros(tokens, limite) ;
+		}
+		catch (RuntimeException runtimeException)
+		{
+			log.warn("Error durante el calentamiento, se continúa con el arranque", runtimeException) ;
+		}
+		finally
+		{
+			// Los tokens sintéticos no deben quedarse en la caché
+			this.cacheUsuariosVerificados.limpiar() ;
+		}
+
+		if (this.tokenPersonalizado)
+		{
+			this.calentarTokenPersonalizado() ;
+		}
+
+		log.info("Calentamiento terminado en {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio)) ;
+	}
+
+	/**
+	 * Firma y verifica tokens sintéticos con claves efímeras de los mismos algoritmos que las claves configuradas
+	 *
+	 * @param limite instante (System.nanoTime) a partir del cual se deja de calentar
+	 * @return tokens sintéticos firmados con una clave efímera del algoritmo de la clave por defecto
+	 */
+	private List<String> calentarParser(long limite)
+	{
+		List<String> tokensPeticiones = new ArrayList<String>() ;
+		Set<String> algoritmos 		  = new HashSet<String>() ;
+
+		for (PublicKey publicKey : this.registroClavesPublicas.getClavesPublicas())
+		{
+			// Una clave efímera por algoritmo es suficiente
+			if (!algoritmos.add(publicKey.getAlgorithm()))
+			{
+				continue ;
+			}
+
+			KeyPair parClaves = this.generarParClavesEfimero(publicKey) ;
+
+			if (parClaves == null)
+			{
+				continue ;
+			}
+
+			List<String> tokens = new ArrayList<String>() ;
+
+			for (int i = 0 ; i < TOKENS_SINTETICOS ; i++)
+			{
+				tokens.add(this.firmarTokenSintetico(parClaves, i)) ;
+			}
+
+			JwtParser jwtParser = Jwts.parser().verifyWith(parClaves.getPublic()).build() ;
+
+			int i = 0 ;
+			while (i < this.iteraciones && System.nanoTime() < limite)
+			{
+				Claims claims = jwtParser.parseSignedClaims(tokens.get(i % tokens.size())).getPayload() ;
+
+				claims.get(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_ROLES) ;
+				claims.getExpiration() ;
+
+				i++ ;
+			}
+
+			log.debug("Calentamiento: {} verificaciones con una clave {}", i, publicKey.getAlgorithm()) ;
+
+			if (tokensPeticiones.isEmpty())
+			{
+				tokensPeticiones = tokens ;
+			}
+		}
+
+		return tokensPeticiones ;
+	}
+
+	/**
+	 * Hace peticiones HTTP al propio microservicio para recorrer Tomcat (o Netty), la cadena de Spring Security y el filtro JWT
+	 *
+	 * @param tokens tokens sintéticos para la cabecera "Authorization"
+	 * @param limite instante (System.nanoTime) a partir del cual se deja de calentar
+	 */
+	private void calentarCadenaFiltros(List<String> tokens, long limite)
+	{
+		Integer puerto = this.environment.getProperty("local.server.port", Integer.class) ;
+
+		if (puerto == null || puerto <= 0)
+		{
+			log.debug("Calentamiento: el microservicio no tiene servidor web, no se calienta la cadena de filtros") ;
+			return ;
+		}
+
+		String contextPath = this.environment.getProperty("server.servlet.context-path",
+														  this.environment.getProperty("spring.webflux.base-path", "")) ;
+		String url 		   = "http://localhost:" + puerto + contextPath + this.ruta ;
+
+		int i = 0 ;
+		while (i < this.peticiones && System.nanoTime() < limite)
+		{
+			HttpGet httpGet = new HttpGet(url) ;
+			httpGet.setConfig(HttpClientUtils.crearRequestConfig(this.timeoutMillis)) ;
+
+			// Se alternan peticiones con token (filtro JWT) y sin él (acceso denegado de Spring Security)
+			if (!tokens.isEmpty() && i % 2 == 0)
+			{
+				httpGet.addHeader("Authorization", "Bearer " + tokens.get((i / 2) % tokens.size())) ;
+			}
+
+			try (CloseableHttpResponse closeableHttpResponse = this.baseServerHttpClient.execute(httpGet))
+			{
+				// La respuesta no importa, solo que se haya recorrido la cadena
+				EntityUtils.consumeQuietly(closeableHttpResponse.getEntity()) ;
+			}
+			catch (IOException ioException)
+			{
+				log.warn("IOException en el calentamiento de la cadena de filtros contra {}, se deja de calentar", url, ioException) ;
+				return ;
+			}
+
+			i++ ;
+		}
+
+		log.debug("Calentamiento: {} peticiones a {}", i, url) ;
+	}
+
+	/**
+	 * Pide el token personalizado para que ya esté en "sesión" cuando llegue la primera petición
+	 */
+	private void calentarTokenPersonalizado()
+	{
+		try
+		{
+			this.authorizationService.obtenerTokenPersonalizado(this.timeoutMillis) ;
+		}
+		catch (BaseServerException baseServerException)
+		{
+			log.warn("No se ha podido obtener el token personalizado durante el calentamiento: {}", baseServerException.getMessage()) ;
+		}
+	}
+
+	/**
+	 * @param publicKey clave pública configurada
+	 * @return un par de claves efímero del mismo algoritmo y tamaño, o null si no se puede generar
+	 */
+	private KeyPair generarParClavesEfimero(PublicKey publicKey)
+	{
+		try
+		{
+			KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(publicKey.getAlgorithm()) ;
+
+			if (publicKey instanceof RSAPublicKey rsaPublicKey)
+			{
+				keyPairGenerator.initialize(rsaPublicKey.getModulus().bitLength()) ;
+			}
+			else if (publicKey instanceof ECPublicKey ecPublicKey)
+			{
+				keyPairGenerator.initialize(ecPublicKey.getParams()) ;
+			}
+			else if (publicKey instanceof EdECPublicKey edECPublicKey)
+			{
+				keyPairGenerator.initialize(edECPublicKey.getParams()) ;
+			}
+
+			return keyPairGenerator.generateKeyPair() ;
+		}
+		catch (GeneralSecurityException generalSecurityException)
+		{
+			log.warn("No se puede generar una clave efímera {} para el calentamiento", publicKey.getAlgorithm(), generalSecurityException) ;
+			return null ;
+		}
+	}
+
+	/**
+	 * @param parClaves par de claves efímero
+	 * @param numero número del token, para que todos sean distintos
+	 * @return un token sintético con los mismos claims que los de FirebaseServer
+	 */
+	private String firmarTokenSintetico(KeyPair parClaves, int numero)
+	{
+		return Jwts.builder()
+				   .id("calentamiento-" + numero)
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_EMAIL, "calentamiento@iesjandula.es")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_NOMBRE, "Calentamiento")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_APELLIDOS, "BaseServer")
+				   .claim(BaseServerConstants.COLLECTION_USUARIOS_ATTRIBUTE_ROLES, List.of("PROFESOR"))
+				   .expiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+				   .signWith(parClaves.getPrivate())
+				   .compact() ;
+	}
+}